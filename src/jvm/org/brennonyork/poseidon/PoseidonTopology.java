@@ -178,7 +178,8 @@ public class PoseidonTopology {
 	    .newStream("accumulo", spout).parallelismHint(10)
 	    .partitionPersist(new AccumuloFactory(accumuloConfig, schema), 
 			      schema.getFields(), 
-			      new AccumuloMetricUpdater(2000), new Fields("avg-write","avg-latency","avg-records"))
+			      new AccumuloMetricUpdater(2000), new Fields("avg-write","elapsed","avg-records",
+									 "write-p50","write-p99","write-p999","write-max"))
 	    .newValuesStream()
 	    .each(new Fields("avg-write"), new MyFunction(), new Fields("new-write"));
 
@@ -46,6 +46,105 @@ public class AccumuloConfig extends HashMap<String,Object> {
      */
     public static String ACCUMULO_PASSWORD = "accumulo.password";
 
+    /**
+     * Number of threads each BatchScanner leverages when querying the cluster. This
+     * defaults to 10.
+     */
+    public static String ACCUMULO_QUERY_THREADS = "accumulo.query.threads";
+
+    /**
+     * Comma-delineated set of authorizations to scan with. This defaults to every
+     * authorization granted to the Accumulo user.
+     * @see #ACCUMULO_USER
+     */
+    public static String ACCUMULO_AUTHORIZATIONS = "accumulo.authorizations";
+
+    /**
+     * Maximum number of rows each AccumuloState caches in memory for queries. This
+     * defaults to 0 which disables the cache.
+     */
+    public static String ACCUMULO_CACHE_SIZE = "accumulo.cache.size";
+
+    /**
+     * Time (in seconds) a cached row remains valid. This defaults to 60 seconds.
+     * @see #ACCUMULO_CACHE_SIZE
+     */
+    public static String ACCUMULO_CACHE_TTL = "accumulo.cache.ttl";
+
+    /**
+     * Whether rows which do not exist are cached as well. This defaults to true.
+     * @see #ACCUMULO_CACHE_SIZE
+     */
+    public static String ACCUMULO_CACHE_MISSES = "accumulo.cache.misses";
+
+    /**
+     * Number of hot keys each MapState built for persistentAggregate keeps in memory
+     * in front of Accumulo. This defaults to 1000; setting it to 0 disables the cache.
+     */
+    public static String ACCUMULO_MAP_CACHE_SIZE = "accumulo.map.cache.size";
+
+    /**
+     * Time (in seconds) between reads of a table's split points by a TabletGrouping, where
+     * 0 reads them only once. This defaults to 300 seconds.
+     */
+    public static String ACCUMULO_SPLITS_REFRESH = "accumulo.splits.refresh";
+
+    /**
+     * Number of rows the Bloom filter of each AccumuloState is sized for. This defaults
+     * to 0 which disables the filter. Since the filter only learns of rows written through
+     * its own state it may only be enabled for a state with a single partition which is the
+     * sole writer of its table; rows written by anything else would be reported missing.
+     */
+    public static String ACCUMULO_BLOOM_SIZE = "accumulo.bloom.size";
+
+    /**
+     * Target false positive rate of the Bloom filter. This defaults to 0.01.
+     * @see #ACCUMULO_BLOOM_SIZE
+     */
+    public static String ACCUMULO_BLOOM_FPP = "accumulo.bloom.fpp";
+
+    /**
+     * Time (in seconds) between rebuilds of the Bloom filter from a scan of the table.
+     * This defaults to 3600 seconds; 0 builds the filter only once.
+     * @see #ACCUMULO_BLOOM_SIZE
+     */
+    public static String ACCUMULO_BLOOM_REBUILD = "accumulo.bloom.rebuild";
+
+    /**
+     * Maximum memory (in bytes) each BatchWriter buffers. This defaults to 100000. Like
+     * every writer setting it may be overridden for a single partition by suffixing the
+     * key with the partition index, e.g. <code>accumulo.writer.memory.3</code>.
+     */
+    public static String ACCUMULO_WRITER_MEMORY = "accumulo.writer.memory";
+
+    /**
+     * Maximum time (in milliseconds) a mutation is buffered by each BatchWriter. This
+     * defaults to 100000.
+     * @see #ACCUMULO_WRITER_MEMORY
+     */
+    public static String ACCUMULO_WRITER_LATENCY = "accumulo.writer.latency";
+
+    /**
+     * Number of threads each BatchWriter sends mutations with. This defaults to 20.
+     * @see #ACCUMULO_WRITER_MEMORY
+     */
+    public static String ACCUMULO_WRITER_THREADS = "accumulo.writer.threads";
+
+    /**
+     * Tuple field holding the time (in milliseconds since the epoch) used to pick the
+     * table each tuple is written to. When set, AccumuloState writes to time-partitioned
+     * tables named after the schema's table and the formatted time, e.g.
+     * <code>flows_20261017</code>, creating each on first use.
+     */
+    public static String ACCUMULO_TABLE_TIME_FIELD = "accumulo.table.time.field";
+
+    /**
+     * SimpleDateFormat pattern (in UTC) of the suffix of each time-partitioned table. This
+     * defaults to <code>yyyyMMdd</code> giving one table per day.
+     * @see #ACCUMULO_TABLE_TIME_FIELD
+     */
+    public static String ACCUMULO_TABLE_TIME_FORMAT = "accumulo.table.time.format";
+
     public static void setZookeeperInstName(Map conf, String zkInstName) {
 	conf.put(AccumuloConfig.ZOOKEEPER_INSTANCE_NAME, zkInstName);
     }
@@ -77,4 +176,85 @@ public class AccumuloConfig extends HashMap<String,Object> {
     public void setAccumuloPassword(String accumuloPasswd) {
 	setAccumuloPassword(this, accumuloPasswd);
     }
+
+    public static void setQueryThreads(Map conf, int numThreads) {
+	conf.put(AccumuloConfig.ACCUMULO_QUERY_THREADS, numThreads);
+    }
+
+    public void setQueryThreads(int numThreads) {
+	setQueryThreads(this, numThreads);
+    }
+
+    public static void setAuthorizations(Map conf, String authorizations) {
+	conf.put(AccumuloConfig.ACCUMULO_AUTHORIZATIONS, authorizations);
+    }
+
+    public void setAuthorizations(String authorizations) {
+	setAuthorizations(this, authorizations);
+    }
+
+    public static void setCache(Map conf, int maxRows, int ttlSeconds, boolean cacheMisses) {
+	conf.put(AccumuloConfig.ACCUMULO_CACHE_SIZE, maxRows);
+	conf.put(AccumuloConfig.ACCUMULO_CACHE_TTL, ttlSeconds);
+	conf.put(AccumuloConfig.ACCUMULO_CACHE_MISSES, cacheMisses);
+    }
+
+    public void setCache(int maxRows, int ttlSeconds, boolean cacheMisses) {
+	setCache(this, maxRows, ttlSeconds, cacheMisses);
+    }
+
+    public static void setMapCacheSize(Map conf, int numKeys) {
+	conf.put(AccumuloConfig.ACCUMULO_MAP_CACHE_SIZE, numKeys);
+    }
+
+    public void setMapCacheSize(int numKeys) {
+	setMapCacheSize(this, numKeys);
+    }
+
+    public static void setSplitsRefresh(Map conf, int seconds) {
+	conf.put(AccumuloConfig.ACCUMULO_SPLITS_REFRESH, seconds);
+    }
+
+    public void setSplitsRefresh(int seconds) {
+	setSplitsRefresh(this, seconds);
+    }
+
+    public static void setBloomFilter(Map conf, int expectedRows, double falsePositiveRate, int rebuildSeconds) {
+	conf.put(AccumuloConfig.ACCUMULO_BLOOM_SIZE, expectedRows);
+	conf.put(AccumuloConfig.ACCUMULO_BLOOM_FPP, falsePositiveRate);
+	conf.put(AccumuloConfig.ACCUMULO_BLOOM_REBUILD, rebuildSeconds);
+    }
+
+    public void setBloomFilter(int expectedRows, double falsePositiveRate, int rebuildSeconds) {
+	setBloomFilter(this, expectedRows, falsePositiveRate, rebuildSeconds);
+    }
+
+    public static void setWriter(Map conf, long maxMemory, long maxLatency, int maxWriteThreads) {
+	conf.put(AccumuloConfig.ACCUMULO_WRITER_MEMORY, maxMemory);
+	conf.put(AccumuloConfig.ACCUMULO_WRITER_LATENCY, maxLatency);
+	conf.put(AccumuloConfig.ACCUMULO_WRITER_THREADS, maxWriteThreads);
+    }
+
+    public void setWriter(long maxMemory, long maxLatency, int maxWriteThreads) {
+	setWriter(this, maxMemory, maxLatency, maxWriteThreads);
+    }
+
+    public static void setPartitionWriter(Map conf, int partitionIndex, long maxMemory, long maxLatency, int maxWriteThreads) {
+	conf.put(AccumuloConfig.ACCUMULO_WRITER_MEMORY+"."+partitionIndex, maxMemory);
+	conf.put(AccumuloConfig.ACCUMULO_WRITER_LATENCY+"."+partitionIndex, maxLatency);
+	conf.put(AccumuloConfig.ACCUMULO_WRITER_THREADS+"."+partitionIndex, maxWriteThreads);
+    }
+
+    public void setPartitionWriter(int partitionIndex, long maxMemory, long maxLatency, int maxWriteThreads) {
+	setPartitionWriter(this, partitionIndex, maxMemory, maxLatency, maxWriteThreads);
+    }
+
+    public static void setTimePartitioned(Map conf, String timeField, String format) {
+	conf.put(AccumuloConfig.ACCUMULO_TABLE_TIME_FIELD, timeField);
+	conf.put(AccumuloConfig.ACCUMULO_TABLE_TIME_FORMAT, format);
+    }
+
+    public void setTimePartitioned(String timeField, String format) {
+	setTimePartitioned(this, timeField, format);
+    }
 }
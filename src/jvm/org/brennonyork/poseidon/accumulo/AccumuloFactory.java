@@ -1,6 +1,7 @@
 package org.brennonyork.poseidon.accumulo;
 
-//import backtype.storm.task.IMetricsContext;
+import backtype.storm.Config;
+import backtype.storm.task.IMetricsContext;
 import backtype.storm.tuple.Values;
 
 import org.brennonyork.poseidon.accumulo.AccumuloState;
@@ -9,39 +10,181 @@ import org.brennonyork.siren.KVSchema;
 import org.apache.log4j.Logger;
 
 import storm.trident.operation.TridentOperationContext;
+import storm.trident.state.JSONNonTransactionalSerializer;
+import storm.trident.state.JSONOpaqueSerializer;
+import storm.trident.state.JSONTransactionalSerializer;
+import storm.trident.state.OpaqueValue;
+import storm.trident.state.Serializer;
 import storm.trident.state.State;
 import storm.trident.state.StateFactory;
+import storm.trident.state.StateType;
+import storm.trident.state.TransactionalValue;
+import storm.trident.state.map.CachedMap;
+import storm.trident.state.map.IBackingMap;
+import storm.trident.state.map.MapState;
+import storm.trident.state.map.NonTransactionalMap;
+import storm.trident.state.map.OpaqueMap;
+import storm.trident.state.map.SnapshottableMap;
+import storm.trident.state.map.TransactionalMap;
 
 import java.util.Map;
 
+/**
+ * Creates the Trident state for an Accumulo cluster.
+ *
+ * A factory built through the constructor creates an AccumuloState suited to
+ * <code>partitionPersist</code> and <code>stateQuery</code>. The static
+ * <code>nonTransactional</code>, <code>transactional</code>, and <code>opaque</code> methods
+ * instead create a MapState backed by an AccumuloMapState suited to
+ * <code>persistentAggregate</code>. Transactional and opaque states store the txid (and, for
+ * opaque states, the previous value) alongside each cell such that replayed batches are
+ * applied exactly once. Values are serialized as JSON unless another Serializer is given and
+ * the <code>accumulo.map.cache.size</code> hottest keys are kept in memory. For example, a
+ * running count per word:</br></br>
+ *
+ * <code>KVSchema counts = new KVSchema("counts", "word");</br>
+ *       counts.colFam.addStatic("count");</br>
+ *       stream.groupBy(new Fields("word"))</br>
+ *             .persistentAggregate(AccumuloFactory.opaque(config, counts),</br>
+ *                                  new Count(), new Fields("count"));</code>
+ */
 public class AccumuloFactory implements StateFactory {
+    private static final long serialVersionUID = 1L;
     private static Logger log = Logger.getLogger(AccumuloFactory.class);
 
+    /** Key used for the single value of a global (ungrouped) aggregation */
+    private static final String GLOBAL_KEY = "$GLOBAL$";
+
     private AccumuloConfig _config;
-    private Map _schema;
+    private Map<String, Object> _schema;
+    private StateType _type;
+    private Serializer<?> _serializer;
 
     /**
      * @param config AccumuoConfig object with each variable set for the given cluster
      * @param schema KVSchema representing how this data will be placed into Accumulo
      */
     public AccumuloFactory(AccumuloConfig config, KVSchema schema) {
+	this(config, schema, null, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private AccumuloFactory(AccumuloConfig config, KVSchema schema, StateType type, Serializer<?> serializer) {
 	_config = config;
 	_schema = schema.serialize();
+	_type = type;
+	_serializer = serializer;
+    }
+
+    /**
+     * @param config AccumuoConfig object with each variable set for the given cluster
+     * @param schema KVSchema laying out each grouping key within Accumulo
+     * @return a factory of non-transactional MapStates for use with persistentAggregate
+     */
+    public static StateFactory nonTransactional(AccumuloConfig config, KVSchema schema) {
+	return nonTransactional(config, schema, new JSONNonTransactionalSerializer());
+    }
+
+    /**
+     * @param config AccumuoConfig object with each variable set for the given cluster
+     * @param schema KVSchema laying out each grouping key within Accumulo
+     * @param serializer Serializer converting each aggregate to and from the bytes of a cell
+     * @return a factory of non-transactional MapStates for use with persistentAggregate
+     */
+    public static StateFactory nonTransactional(AccumuloConfig config, KVSchema schema, Serializer<?> serializer) {
+	return new AccumuloFactory(config, schema, StateType.NON_TRANSACTIONAL, serializer);
+    }
+
+    /**
+     * @param config AccumuoConfig object with each variable set for the given cluster
+     * @param schema KVSchema laying out each grouping key within Accumulo
+     * @return a factory of transactional MapStates for use with persistentAggregate
+     */
+    public static StateFactory transactional(AccumuloConfig config, KVSchema schema) {
+	return transactional(config, schema, new JSONTransactionalSerializer());
+    }
+
+    /**
+     * @param config AccumuoConfig object with each variable set for the given cluster
+     * @param schema KVSchema laying out each grouping key within Accumulo
+     * @param serializer Serializer converting each TransactionalValue to and from the bytes
+     *                   of a cell
+     * @return a factory of transactional MapStates for use with persistentAggregate
+     */
+    // Storm's serializers are typed on the raw TransactionalValue
+    @SuppressWarnings("rawtypes")
+    public static StateFactory transactional(AccumuloConfig config, KVSchema schema, Serializer<TransactionalValue> serializer) {
+	return new AccumuloFactory(config, schema, StateType.TRANSACTIONAL, serializer);
+    }
+
+    /**
+     * @param config AccumuoConfig object with each variable set for the given cluster
+     * @param schema KVSchema laying out each grouping key within Accumulo
+     * @return a factory of opaque transactional MapStates for use with persistentAggregate
+     */
+    public static StateFactory opaque(AccumuloConfig config, KVSchema schema) {
+	return opaque(config, schema, new JSONOpaqueSerializer());
+    }
+
+    /**
+     * @param config AccumuoConfig object with each variable set for the given cluster
+     * @param schema KVSchema laying out each grouping key within Accumulo
+     * @param serializer Serializer converting each OpaqueValue to and from the bytes of a cell
+     * @return a factory of opaque transactional MapStates for use with persistentAggregate
+     */
+    // Storm's serializers are typed on the raw OpaqueValue
+    @SuppressWarnings("rawtypes")
+    public static StateFactory opaque(AccumuloConfig config, KVSchema schema, Serializer<OpaqueValue> serializer) {
+	return new AccumuloFactory(config, schema, StateType.OPAQUE, serializer);
     }
 	
     /**
-     * @return a new AccumuloState instance.
-     *
-    public State makeState(Map conf, 
+     * @return a new AccumuloState for the given partition, or MapState for transactional
+     *         and opaque factories.
+     */
+    public State makeState(@SuppressWarnings("rawtypes") Map conf, 
 			   IMetricsContext metrics, 
 			   int partitionIndex, 
 			   int numPartitions) {
-	return new AccumuloState(conf, _config, _schema);
-    }*/
+	if(_type != null) {
+	    return makeMapState(conf);
+	}
 
-    public State makeState(Map conf, 
-			   int partitionIndex, 
-			   int numPartitions) {
-	return new AccumuloState(conf, _config, _schema);
+	AccumuloState state = new AccumuloState(conf, _config, _schema, partitionIndex, numPartitions);
+	int bucketSize = 60;
+
+	if(conf.containsKey(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS)) {
+	    bucketSize = Integer.parseInt(conf.get(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS).toString());
+	}
+	state.registerMetrics(metrics, bucketSize);
+	return state;
+    }
+
+    // The serializer was typed to match the state type by the static factory methods
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private State makeMapState(Map<?, ?> conf) {
+	MapState<Object> mapState;
+
+	if(_type == StateType.NON_TRANSACTIONAL) {
+	    mapState = NonTransactionalMap.build(makeBackingMap(conf, (Serializer<Object>)_serializer));
+	} else if(_type == StateType.TRANSACTIONAL) {
+	    mapState = TransactionalMap.build(makeBackingMap(conf, (Serializer<TransactionalValue>)_serializer));
+	} else {
+	    mapState = OpaqueMap.build(makeBackingMap(conf, (Serializer<OpaqueValue>)_serializer));
+	}
+	return new SnapshottableMap<Object>(mapState, new Values(GLOBAL_KEY));
+    }
+
+    private <T> IBackingMap<T> makeBackingMap(Map<?, ?> conf, Serializer<T> serializer) {
+	IBackingMap<T> backingMap = new AccumuloMapState<T>(conf, _config, _schema, serializer);
+	int cacheSize = 1000;
+
+	if(_config.containsKey(AccumuloConfig.ACCUMULO_MAP_CACHE_SIZE)) {
+	    cacheSize = Integer.parseInt(_config.get(AccumuloConfig.ACCUMULO_MAP_CACHE_SIZE).toString());
+	}
+	if(cacheSize > 0) {
+	    backingMap = new CachedMap<T>(backingMap, cacheSize);
+	}
+	return backingMap;
     }
 }
@@ -0,0 +1,246 @@
+package org.brennonyork.poseidon.accumulo;
+
+import org.brennonyork.siren.KVSchema;
+
+import backtype.storm.topology.FailedException;
+
+import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.MutationsRejectedException;
+import org.apache.accumulo.core.client.ZooKeeperInstance;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+
+import org.apache.hadoop.io.Text;
+import org.apache.log4j.Logger;
+
+import storm.trident.state.Serializer;
+import storm.trident.state.map.IBackingMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Backing map for Trident MapStates persisted within Accumulo.
+ *
+ * Every key handed to the map (the values of the grouping fields within a Trident stream)
+ * is laid out through a KVSchema. Each non-static element of the row, column family, and
+ * column qualifier is filled, in order, with the next value of the key while static
+ * elements are copied as is, so a key must hold exactly one value per non-static element.
+ * The value of the cell is the serialized state value, which for transactional and opaque
+ * states carries the txid (and previous value) alongside the aggregate itself.</br></br>
+ *
+ * Each <code>multiGet</code> fetches every key through a single pass of a BatchScanner and
+ * each <code>multiPut</code> writes every key through a single flush of a BatchWriter.</br></br>
+ *
+ * <b>Author:</b> <a href="mailto:brennon.york@gmail.com">Brennon York</a>
+ * @author Brennon York
+ */
+public class AccumuloMapState<T> implements IBackingMap<T> {
+    private static Logger log = Logger.getLogger(AccumuloMapState.class);
+
+    private String _zkInstName;
+    private String _zkServers;
+    private String _accumuloUser;
+    private String _accumuloPasswd;
+
+    private String _tableName;
+    private List<?> _rowSchema;
+    private List<?> _cfSchema;
+    private List<?> _cqSchema;
+    /** Number of values in each key, one per non-static element of the schema */
+    private int _keySize;
+    private Serializer<T> _serializer;
+
+    private Connector _conn;
+    private BatchWriter _writer;
+    private BatchScanner _scanner;
+    private Authorizations _authorizations;
+    private long _maxMemory = 100000;
+    private long _maxLatency = 100000;
+    private int _maxWriteThreads = 20;
+    private int _numQueryThreads = 10;
+
+    public AccumuloMapState(Map<?, ?> stormConf, AccumuloConfig accumuloConf, Map<?, ?> schema, Serializer<T> serializer) {
+	try {
+	    _zkInstName = accumuloConf.get(AccumuloConfig.ZOOKEEPER_INSTANCE_NAME).toString();
+	    _zkServers = accumuloConf.get(AccumuloConfig.ZOOKEEPER_SERVER_LIST).toString();
+	    _accumuloUser = accumuloConf.get(AccumuloConfig.ACCUMULO_USER).toString();
+	    _accumuloPasswd = accumuloConf.get(AccumuloConfig.ACCUMULO_PASSWORD).toString();
+	} catch(NullPointerException e) {
+	    log.error("AccumuloConfig is missing connection settings", e);
+	}
+	if(accumuloConf.containsKey(AccumuloConfig.ACCUMULO_QUERY_THREADS)) {
+	    _numQueryThreads = Integer.parseInt(accumuloConf.get(AccumuloConfig.ACCUMULO_QUERY_THREADS).toString());
+	}
+
+	_tableName = (String)schema.get(KVSchema.KV_TABLE_NAME);
+	_rowSchema = (List<?>)schema.get(KVSchema.KV_ROW);
+	_cfSchema = (List<?>)schema.get(KVSchema.KV_COLUMN_FAMILY);
+	_cqSchema = (List<?>)schema.get(KVSchema.KV_COLUMN_QUALIFIER);
+	_keySize = countFields(_rowSchema) + countFields(_cfSchema) + countFields(_cqSchema);
+	_serializer = serializer;
+
+	// Create a connection to Zookeeper
+	try {
+	    _conn = new ZooKeeperInstance(_zkInstName, _zkServers)
+		.getConnector(_accumuloUser, _accumuloPasswd);
+	} catch(Exception e) {
+	    e.printStackTrace();
+	}
+
+	// Create a batch writer and scanner for Accumulo
+	try {
+	    createWriter();
+
+	    if(accumuloConf.containsKey(AccumuloConfig.ACCUMULO_AUTHORIZATIONS)) {
+		_authorizations = new Authorizations(accumuloConf.get(AccumuloConfig.ACCUMULO_AUTHORIZATIONS)
+						     .toString()
+						     .split(","));
+	    } else {
+		_authorizations = _conn.securityOperations().getUserAuthorizations(_accumuloUser);
+	    }
+	    _scanner = _conn.createBatchScanner(_tableName,
+						_authorizations,
+						_numQueryThreads);
+	} catch(Exception e) {
+	    e.printStackTrace();
+	}
+    }
+
+    private void createWriter() throws Exception {
+	AccumuloState.ensureTable(_conn, _tableName);
+	_writer = _conn.createBatchWriter(_tableName,
+					  _maxMemory,
+					  _maxLatency,
+					  _maxWriteThreads);
+    }
+
+    private static boolean isStaticString(String s) {
+	if(s.startsWith("\"") && s.endsWith("\"")) {
+	    return true;
+	} else {
+	    return false;
+	}
+    }
+
+    /**
+     * @return the number of non-static elements of the schema
+     */
+    private static int countFields(List<?> plan) {
+	int count = 0;
+
+	if(plan != null) {
+	    for(Object item : plan) {
+		if(!isStaticString((String)item)) {
+		    count += 1;
+		}
+	    }
+	}
+	return count;
+    }
+
+    /**
+     * Fills a single element of the schema from the key.
+     *
+     * @param plan The ordered list of elements from the KVSchema
+     * @param key The values of the grouping fields
+     * @param next Single element array holding the index of the next unused key value
+     */
+    private static Text fill(List<?> plan, List<Object> key, int[] next) {
+	StringBuilder sb = new StringBuilder();
+
+	if(plan != null) {
+	    for(int i = 0; i < plan.size(); ++i) {
+		String item = (String)plan.get(i);
+
+		if(isStaticString(item)) {
+		    sb.append(item.substring(1, item.length()-1));
+		} else {
+		    sb.append(String.valueOf(key.get(next[0]++)));
+		}
+	    }
+	}
+	return new Text(sb.toString());
+    }
+
+    /**
+     * @return the row, column family, and column qualifier of the key with the newest
+     *         timestamp and an empty column visibility
+     */
+    private Key toKey(List<Object> key) {
+	if(key.size() != _keySize) {
+	    throw new IllegalArgumentException("Key "+key+" has "+key.size()+" values while the schema of "+
+					       _tableName+" lays out "+_keySize+" grouping fields");
+	}
+	int[] next = new int[] { 0 };
+	Text row = fill(_rowSchema, key, next);
+	Text cf = fill(_cfSchema, key, next);
+	Text cq = fill(_cqSchema, key, next);
+	return new Key(row, cf, cq);
+    }
+
+    public List<T> multiGet(List<List<Object>> keys) {
+	List<Key> cells = new ArrayList<Key>(keys.size());
+	List<Range> ranges = new ArrayList<Range>(keys.size());
+	Map<Key, Value> found = new HashMap<Key, Value>();
+
+	for(List<Object> key : keys) {
+	    Key cell = toKey(key);
+	    cells.add(cell);
+	    ranges.add(Range.exact(cell.getRow(), cell.getColumnFamily(), cell.getColumnQualifier()));
+	}
+
+	if(!ranges.isEmpty()) {
+	    _scanner.setRanges(ranges);
+
+	    for(Map.Entry<Key, Value> entry : _scanner) {
+		Key k = entry.getKey();
+		found.put(new Key(k.getRow(), k.getColumnFamily(), k.getColumnQualifier()), entry.getValue());
+	    }
+	}
+
+	List<T> values = new ArrayList<T>(cells.size());
+	for(Key cell : cells) {
+	    Value v = found.get(cell);
+	    values.add((v == null) ? null : _serializer.deserialize(v.get()));
+	}
+	return values;
+    }
+
+    public void multiPut(List<List<Object>> keys, List<T> vals) {
+	List<Mutation> mutations = new ArrayList<Mutation>(keys.size());
+
+	for(int i = 0; i < keys.size(); ++i) {
+	    Key cell = toKey(keys.get(i));
+	    Mutation m = new Mutation(cell.getRow());
+	    m.put(cell.getColumnFamily(), cell.getColumnQualifier(), new Value(_serializer.serialize(vals.get(i))));
+	    mutations.add(m);
+	}
+
+	try {
+	    _writer.addMutations(mutations);
+	    _writer.flush();
+	} catch(MutationsRejectedException e) {
+	    // A writer which has failed rejects everything after, so the replay needs a new one
+	    try {
+		_writer.close();
+	    } catch(MutationsRejectedException ignored) { }
+	    try {
+		AccumuloState.forgetTable(_tableName);
+		createWriter();
+	    } catch(Exception ce) {
+		log.error("Could not recreate the writer for "+_tableName, ce);
+	    }
+	    // A FailedException has Trident replay the batch, where the txid guards against
+	    // double counting; any other exception would kill the worker
+	    throw new FailedException("Accumulo rejected "+mutations.size()+" mutations for "+_tableName, e);
+	}
+    }
+}
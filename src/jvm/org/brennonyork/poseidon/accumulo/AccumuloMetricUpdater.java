@@ -1,58 +1,102 @@
 package org.brennonyork.poseidon.accumulo;
 
+import backtype.storm.Config;
 import backtype.storm.tuple.Values;
 
 import org.brennonyork.poseidon.accumulo.AccumuloState;
+import org.brennonyork.siren.metrics.LogLinearHistogram;
 
 import org.apache.log4j.Logger;
 
 import storm.trident.operation.TridentCollector;
+import storm.trident.operation.TridentOperationContext;
 import storm.trident.state.BaseStateUpdater;
 import storm.trident.tuple.TridentTuple;
 
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Writes each batch into an AccumuloState while recording the write latency (in
+ * milliseconds) and size (in tuples) of every batch within log-linear histograms.
+ *
+ * Both histograms are registered with Storm's metrics API as <code>accumulo-write-latency</code>
+ * and <code>accumulo-batch-size</code>. Every <code>numBatchesPerStat</code> batches a snapshot
+ * of the batches since the previous snapshot is also logged and emitted as seven fields:</br></br>
+ *
+ * <code>new Fields("avg-write", "elapsed", "avg-records",</br>
+ *                  "write-p50", "write-p99", "write-p999", "write-max")</code>
+ */
 public class AccumuloMetricUpdater extends BaseStateUpdater<AccumuloState> {
     private static Logger log = Logger.getLogger(AccumuloMetricUpdater.class);
 
-    private long batchStart;
-    private long _clusterWriteTime = 0;
-    private long _numRecords = 0;
     private long _numBatchesPerStat = 1000;
     private long _currBatch = 0;
     private long _startTime = 0;
 
+    private LogLinearHistogram _writeLatency;
+    private LogLinearHistogram _batchSize;
+    private LogLinearHistogram _windowLatency;
+    private LogLinearHistogram _windowSize;
+
     public AccumuloMetricUpdater() {
 	this(1000);
     }
 
     public AccumuloMetricUpdater(long numBatchesPerStat) {
 	_numBatchesPerStat = numBatchesPerStat;
+    }
+
+    @Override
+    public void prepare(Map conf, TridentOperationContext context) {
+	int bucketSize = 60;
+
+	if(conf.containsKey(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS)) {
+	    bucketSize = Integer.parseInt(conf.get(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS).toString());
+	}
+	_writeLatency = context.registerMetric("accumulo-write-latency", new LogLinearHistogram(), bucketSize);
+	_batchSize = context.registerMetric("accumulo-batch-size", new LogLinearHistogram(), bucketSize);
+	_windowLatency = new LogLinearHistogram();
+	_windowSize = new LogLinearHistogram();
 	_startTime = System.currentTimeMillis();
     }
 
-    public void updateState(AccumuloState state, 
-			    List<TridentTuple> tuples, 
+    public void updateState(AccumuloState state,
+			    List<TridentTuple> tuples,
 			    TridentCollector collector) {
 	// Preconditions for statistics collection
-	batchStart = System.currentTimeMillis();
+	long batchStart = System.currentTimeMillis();
 	// Set tuples into mutations and insert them into Accumulo
 	state.bulkSet(tuples);
 	// Postconditions for statistics collection
-	_clusterWriteTime += (System.currentTimeMillis() - batchStart);
-	_numRecords += tuples.size();
+	long writeTime = System.currentTimeMillis() - batchStart;
+
+	_writeLatency.record(writeTime);
+	_batchSize.record(tuples.size());
+	_windowLatency.record(writeTime);
+	_windowSize.record(tuples.size());
+
 	// Check if the number of batches has exceeded the number for statistics calculations
 	if(++_currBatch % _numBatchesPerStat == 0) {
-	    log.info("AvgWrite:   "+((float)_clusterWriteTime / (float)_numBatchesPerStat)+"ms");
-	    log.info("AvgLatency: "+(System.currentTimeMillis() - _startTime)+"ms");
-	    log.info("AvgNumRecs: "+(_numRecords / _numBatchesPerStat)+" per batch");
-	    _clusterWriteTime = 0;
-	    _numRecords = 0;
+	    LogLinearHistogram.Snapshot latency = _windowLatency.snapshot(true);
+	    LogLinearHistogram.Snapshot size = _windowSize.snapshot(true);
+	    long elapsed = System.currentTimeMillis() - _startTime;
+
+	    log.info("Write:      avg "+latency.getMean()+"ms, p50 "+latency.getPercentile(0.5)+
+		     "ms, p99 "+latency.getPercentile(0.99)+"ms, p999 "+latency.getPercentile(0.999)+
+		     "ms, max "+latency.getMax()+"ms");
+	    log.info("Elapsed:    "+elapsed+"ms");
+	    log.info("AvgNumRecs: "+size.getMean()+" per batch (max "+size.getMax()+")");
+
+	    collector.emit(new Values((float)latency.getMean(),
+				      elapsed,
+				      (float)size.getMean(),
+				      latency.getPercentile(0.5),
+				      latency.getPercentile(0.99),
+				      latency.getPercentile(0.999),
+				      latency.getMax()));
 	    _currBatch = 0;
 	    _startTime = System.currentTimeMillis();
-	    collector.emit(new Values(((float)_clusterWriteTime / (float)_numBatchesPerStat),
-				      (System.currentTimeMillis() - _startTime),
-				      ((float)_numRecords / (float)_numBatchesPerStat)));
 	}
     }
 }
@@ -4,7 +4,8 @@ import backtype.storm.tuple.Values;
 
 import org.brennonyork.poseidon.accumulo.AccumuloState;
 
-import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
 
 import org.apache.log4j.Logger;
 
@@ -12,12 +13,58 @@ import storm.trident.operation.TridentCollector;
 import storm.trident.state.BaseQueryFunction;
 import storm.trident.tuple.TridentTuple;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
 
-public class AccumuloQuery extends BaseQueryFunction<AccumuloState, String /* result type */> {
+/**
+ * Queries Accumulo for the row of each tuple within a Trident stream.
+ *
+ * Each tuple passed through a <code>stateQuery</code> must carry every field within the row
+ * plan of the KVSchema given to the AccumuloFactory. For every Key Value pair found within
+ * the resulting row a tuple of three fields (column family, column qualifier, value) is
+ * emitted into the stream; tuples whose row does not exist emit nothing. For example:</br></br>
+ *
+ * <code>stream.stateQuery(accumulo, schema.getFields(), new AccumuloQuery(),</br>
+ *                         new Fields("column-family", "column-qualifier", "value"));</code></br></br>
+ *
+ * Filters may be chained onto the query such that they run on the tablet servers rather
+ * than within the topology, for example:</br></br>
+ *
+ * <code>new AccumuloQuery().columnFamilies("dns").qualifierPrefix("a-").timestampRange(start, end)</code>
+ *
+ * @see ScanFilter
+ */
+public class AccumuloQuery extends BaseQueryFunction<AccumuloState, SortedMap<Key, Value> /* result type */> {
     private static Logger log = Logger.getLogger(AccumuloQuery.class);
 
+    private ScanFilter _filter = new ScanFilter();
+
+    public AccumuloQuery columnFamilies(String... cfs) {
+	_filter.columnFamilies(cfs);
+	return this;
+    }
+
+    public AccumuloQuery qualifierPrefix(String prefix) {
+	_filter.qualifierPrefix(prefix);
+	return this;
+    }
+
+    public AccumuloQuery valueRegex(String regex) {
+	_filter.valueRegex(regex);
+	return this;
+    }
+
+    public AccumuloQuery timestampRange(long start, long end) {
+	_filter.timestampRange(start, end);
+	return this;
+    }
+
+    public AccumuloQuery firstN(int n) {
+	_filter.firstN(n);
+	return this;
+    }
+
     /**
      * This method is called as a wrapper from Trident to the AccumuloState bulkGet() method. It
      * passes a list of Trident tuples as input and expects a List of return values. These values
@@ -29,26 +76,23 @@ public class AccumuloQuery extends BaseQueryFunction<AccumuloState, String /* re
      * @return A list of results from the query to be passed to the execute() method for injection
      *         into the stream.
      *
-     * @see AccumuloState#bulkGet(List)
-     * @see #execute(TridentTuple, String, TridentCollector)
+     * @see AccumuloState#bulkGet(List, ScanFilter)
+     * @see #execute(TridentTuple, SortedMap, TridentCollector)
      */
-    public List<String> batchRetrieve(AccumuloState state, List<TridentTuple> inputs) {
-	/*
-	List<Long> userIDs = new ArrayList<Long>();
-	for(TridentTuple input : inputs) {
-	    userIDs.add(input.getLong(0));
-	}
-	return state.bulkGet(userIDs);
-	*/
-	return new ArrayList<String>();
+    public List<SortedMap<Key, Value>> batchRetrieve(AccumuloState state, List<TridentTuple> inputs) {
+	return state.bulkGet(inputs, _filter);
     }
     
     /**
      * Called for each resulting item within the List returned from the batchRetrieve() method.
      */
     public void execute(TridentTuple tuple, 
-			String location /* result */, 
+			SortedMap<Key, Value> row /* result */, 
 			TridentCollector collector) {
-	collector.emit(new Values(location));
+	for(Map.Entry<Key, Value> entry : row.entrySet()) {
+	    collector.emit(new Values(entry.getKey().getColumnFamily().toString(),
+				      entry.getKey().getColumnQualifier().toString(),
+				      entry.getValue().toString()));
+	}
     }
 }
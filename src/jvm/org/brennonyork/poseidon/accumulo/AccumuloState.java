@@ -1,14 +1,22 @@
 package org.brennonyork.poseidon.accumulo;
 
+import backtype.storm.task.IMetricsContext;
+import backtype.storm.topology.FailedException;
 import backtype.storm.tuple.Values;
 
 import org.brennonyork.siren.KVSchema;
 
+import org.apache.accumulo.core.client.AccumuloException;
+import org.apache.accumulo.core.client.AccumuloSecurityException;
 import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.BatchWriter;
 import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.MultiTableBatchWriter;
 import org.apache.accumulo.core.client.MutationsRejectedException;
+import org.apache.accumulo.core.client.TableExistsException;
+import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.client.ZooKeeperInstance;
+import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Mutation;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
@@ -22,10 +30,23 @@ import storm.trident.state.State;
 import storm.trident.tuple.TridentTuple;
 
 import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
 
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Generates a state object for the Accumulo database.
@@ -36,6 +57,37 @@ import java.util.Map;
  * and then sends the batch into the cluster. After it flushes its buffers to maintain performance.
  * It can also handle distributed queries through a DRPC client releasing records from Accumulo
  * into the stream.</br></br>
+ *
+ * Queries build their row from each query tuple through the same row plan of the KVSchema
+ * used for writes. Every row within a batch is fetched through a single BatchScanner leveraging
+ * <code>accumulo.query.threads</code> threads and scanning with the
+ * <code>accumulo.authorizations</code> given within the AccumuloConfig.</br></br>
+ *
+ * When <code>accumulo.cache.size</code> is set each state keeps a RowCache in front of its
+ * BatchScanner such that only rows missing from the cache are scanned. Every row written
+ * through <code>bulkSet</code> is invalidated within the cache of that state.</br></br>
+ *
+ * The write path is built to avoid per-tuple garbage. The static strings of the schema are
+ * encoded to bytes once, each key component is encoded straight into a reused Text buffer
+ * (byte[] fields are copied as is), parsed column visibilities are cached and the list of
+ * mutations is kept across batches.</br></br>
+ *
+ * When <code>accumulo.bloom.size</code> is set each state also keeps a Bloom filter of the
+ * rows within the table, built by a background scan and rebuilt every
+ * <code>accumulo.bloom.rebuild</code> seconds. Rows written through <code>bulkSet</code> are
+ * added to it once flushed and rows it rejects are answered as missing without being
+ * scanned. A Bloom filter must never report a present row as missing, so the filter is only
+ * built for a state of a single partition, which must then be the only writer of its table;
+ * rows written by any other writer would go unseen until the next rebuild.</br></br>
+ *
+ * Tables are created the first time a state within the worker writes to them. Writer
+ * settings may be given per partition and, when <code>accumulo.table.time.field</code> is
+ * set, each tuple is written to the time-partitioned table of its time (e.g.
+ * <code>flows_20261017</code>) such that old data is aged out by dropping whole tables.
+ * Should a batch be rejected the writers are rebuilt and their tables checked again, such
+ * that a table dropped while aged out is re-created by the replayed batch. A time-partitioned
+ * state is write only: it keeps neither a cache nor a Bloom filter and fails the batch of
+ * any query, which would otherwise only ever see the table named within the schema.</br></br>
  */
 public class AccumuloState implements State {
     private static Logger log = Logger.getLogger(AccumuloState.class); 
@@ -53,24 +105,56 @@ public class AccumuloState implements State {
     private String _tsSchema;
     private List _valSchema;
 
-    private Text _row;
-    private Text _cf;
-    private Text _cq;
-    private Text _cv;
+    private Object[] _rowPlan;
+    private Object[] _cfPlan;
+    private Object[] _cqPlan;
+    private Object[] _valPlan;
+
+    private Text _row = new Text();
+    private Text _cf = new Text();
+    private Text _cq = new Text();
+    private Text _cv = new Text();
     private long _ts;
-    private Value _val;
+    private Text _val = new Text();
+    private byte[] _encodeBuf = new byte[64];
+    private Map<Text, ColumnVisibility> _visibilities = new HashMap<Text, ColumnVisibility>();
+    private static final int MAX_CACHED_VISIBILITIES = 1024;
 
-    private List<Mutation> mutations;
+    private static Set<String> _createdTables = new HashSet<String>();
+
+    private List<Mutation> mutations = new ArrayList<Mutation>();
+    /** Rows of the current batch, added to the bloom filter once flushed */
+    private List<Text> _written = new ArrayList<Text>();
     private Connector _conn;
     private BatchWriter _writer;
+    private MultiTableBatchWriter _multiWriter;
+    private Map<String, BatchWriter> _tableWriters = new HashMap<String, BatchWriter>();
+    private String _timeField;
+    private SimpleDateFormat _timeFormat;
+    private Map<Long, String> _timeTables = new HashMap<Long, String>();
     private long _maxMemory = 100000;
     private long _maxLatency = 100000;
     private int _maxWriteThreads = 20;
     private BatchScanner _scanner;
     private Authorizations _authorizations;
-    private int _numQueryThreads;
+    private int _numQueryThreads = 10;
+    private RowCache _cache;
+    private RowBloomFilter _bloom;
+    private ScheduledExecutorService _bloomBuilder;
     
     public AccumuloState(Map stormConf, AccumuloConfig accumuloConf, Map schema) {
+	this(stormConf, accumuloConf, schema, 0, 1);
+    }
+
+    public AccumuloState(Map stormConf, AccumuloConfig accumuloConf, Map schema, int partitionIndex, int numPartitions) {
+	this(stormConf, accumuloConf, schema, null, partitionIndex, numPartitions);
+    }
+
+    /**
+     * @param conn Connector to the Accumulo instance, e.g. of a MockInstance, or null to
+     *             connect through the ZooKeeper settings of the AccumuloConfig
+     */
+    public AccumuloState(Map stormConf, AccumuloConfig accumuloConf, Map schema, Connector conn, int partitionIndex, int numPartitions) {
 	try {
 	    _zkInstName = accumuloConf.get(AccumuloConfig.ZOOKEEPER_INSTANCE_NAME).toString();
 	    _zkServers = accumuloConf.get(AccumuloConfig.ZOOKEEPER_SERVER_LIST).toString();
@@ -80,6 +164,43 @@ public class AccumuloState implements State {
 	    // TODO: Add error message or throw some new exception (if possible) relating to
 	    //       any of these values not being set from within the AccumuloConfig
 	}
+	if(accumuloConf.containsKey(AccumuloConfig.ACCUMULO_QUERY_THREADS)) {
+	    _numQueryThreads = Integer.parseInt(accumuloConf.get(AccumuloConfig.ACCUMULO_QUERY_THREADS).toString());
+	}
+	if(accumuloConf.containsKey(AccumuloConfig.ACCUMULO_CACHE_SIZE)) {
+	    int cacheSize = Integer.parseInt(accumuloConf.get(AccumuloConfig.ACCUMULO_CACHE_SIZE).toString());
+	    long cacheTTL = 60;
+	    boolean cacheMisses = true;
+
+	    if(accumuloConf.containsKey(AccumuloConfig.ACCUMULO_CACHE_TTL)) {
+		cacheTTL = Long.parseLong(accumuloConf.get(AccumuloConfig.ACCUMULO_CACHE_TTL).toString());
+	    }
+	    if(accumuloConf.containsKey(AccumuloConfig.ACCUMULO_CACHE_MISSES)) {
+		cacheMisses = Boolean.parseBoolean(accumuloConf.get(AccumuloConfig.ACCUMULO_CACHE_MISSES).toString());
+	    }
+	    if(cacheSize > 0) {
+		_cache = new RowCache(cacheSize, cacheTTL * 1000L, cacheMisses);
+	    }
+	}
+	_maxMemory = getLong(accumuloConf, AccumuloConfig.ACCUMULO_WRITER_MEMORY, partitionIndex, _maxMemory);
+	_maxLatency = getLong(accumuloConf, AccumuloConfig.ACCUMULO_WRITER_LATENCY, partitionIndex, _maxLatency);
+	_maxWriteThreads = (int)getLong(accumuloConf, AccumuloConfig.ACCUMULO_WRITER_THREADS, partitionIndex, _maxWriteThreads);
+
+	if(accumuloConf.containsKey(AccumuloConfig.ACCUMULO_TABLE_TIME_FIELD)) {
+	    String format = "yyyyMMdd";
+
+	    if(_cache != null) {
+		log.warn("Not caching rows since time-partitioned states cannot be queried");
+		_cache = null;
+	    }
+
+	    if(accumuloConf.containsKey(AccumuloConfig.ACCUMULO_TABLE_TIME_FORMAT)) {
+		format = accumuloConf.get(AccumuloConfig.ACCUMULO_TABLE_TIME_FORMAT).toString();
+	    }
+	    _timeField = accumuloConf.get(AccumuloConfig.ACCUMULO_TABLE_TIME_FIELD).toString();
+	    _timeFormat = new SimpleDateFormat(format);
+	    _timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+	}
 	/*
 	_tableName = (String)schema.get("table.name");
         _rowSchema = (List)schema.get("row");
@@ -96,35 +217,224 @@ public class AccumuloState implements State {
 	_cvSchema = (String)schema.get(KVSchema.KV_COLUMN_VISIBILITY);
         _tsSchema = (String)schema.get(KVSchema.KV_TIMESTAMP);
         _valSchema = (List)schema.get(KVSchema.KV_VALUE);
+
+	_rowPlan = compile(_rowSchema);
+	_cfPlan = compile(_cfSchema);
+	_cqPlan = compile(_cqSchema);
+	_valPlan = compile(_valSchema);
 		
 	// Create a connection to Zookeeper
-	try {
-	    _conn = new ZooKeeperInstance(_zkInstName, _zkServers)
-		.getConnector(_accumuloUser, _accumuloPasswd);
-	} catch(Exception e) {
-	    e.printStackTrace();
+	_conn = conn;
+	if(_conn == null) {
+	    try {
+		_conn = new ZooKeeperInstance(_zkInstName, _zkServers)
+		    .getConnector(_accumuloUser, _accumuloPasswd);
+	    } catch(Exception e) {
+		e.printStackTrace();
+	    }
 	}
 
 	// Create a batch writer for Accumulo
 	try {
-	    _writer = _conn.createBatchWriter(_tableName, 
-					      _maxMemory, 
-					      _maxLatency, 
-					      _maxWriteThreads);
+	    if(_timeField != null) {
+		_multiWriter = _conn.createMultiTableBatchWriter(_maxMemory,
+								 _maxLatency,
+								 _maxWriteThreads);
+	    } else {
+		ensureTable(_conn, _tableName);
+		_writer = _conn.createBatchWriter(_tableName, 
+						  _maxMemory, 
+						  _maxLatency, 
+						  _maxWriteThreads);
+	    }
 	} catch(Exception e) {
 	    e.printStackTrace();
 	}
 	
 	// Create a batch scanner for Accumulo
-	/*
 	try {
-	    _scanner = _conn.createBatchScanner(_tableName, 
-						_authorizations, 
-						_numQueryThreads);
+	    if(accumuloConf.containsKey(AccumuloConfig.ACCUMULO_AUTHORIZATIONS)) {
+		_authorizations = new Authorizations(accumuloConf.get(AccumuloConfig.ACCUMULO_AUTHORIZATIONS)
+						     .toString()
+						     .split(","));
+	    } else {
+		_authorizations = _conn.securityOperations().getUserAuthorizations(_accumuloUser);
+	    }
+	    // Time-partitioned states are never queried and may not have a base table at all
+	    if(_timeField == null) {
+		_scanner = _conn.createBatchScanner(_tableName, 
+						    _authorizations, 
+						    _numQueryThreads);
+	    }
 	} catch(Exception e) {
 	    e.printStackTrace();
 	}
-	*/
+
+	// Build the bloom filter of rows in the background
+	if(accumuloConf.containsKey(AccumuloConfig.ACCUMULO_BLOOM_SIZE)) {
+	    int bloomSize = Integer.parseInt(accumuloConf.get(AccumuloConfig.ACCUMULO_BLOOM_SIZE).toString());
+	    double bloomFPP = 0.01;
+	    long bloomRebuild = 3600;
+
+	    if(accumuloConf.containsKey(AccumuloConfig.ACCUMULO_BLOOM_FPP)) {
+		bloomFPP = Double.parseDouble(accumuloConf.get(AccumuloConfig.ACCUMULO_BLOOM_FPP).toString());
+	    }
+	    if(accumuloConf.containsKey(AccumuloConfig.ACCUMULO_BLOOM_REBUILD)) {
+		bloomRebuild = Long.parseLong(accumuloConf.get(AccumuloConfig.ACCUMULO_BLOOM_REBUILD).toString());
+	    }
+	    if(bloomSize > 0 && _timeField != null) {
+		log.warn("Not building a row bloom filter for "+_tableName+" since time-partitioned states cannot be queried");
+	    } else if(bloomSize > 0 && numPartitions > 1) {
+		log.warn("Not building a row bloom filter for "+_tableName+" since its "+numPartitions+
+			 " partitions each write rows the others' filters would never see");
+	    } else if(bloomSize > 0) {
+		_bloom = new RowBloomFilter(bloomSize, bloomFPP);
+		_bloomBuilder = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+			    Thread t = new Thread(r, "accumulo-bloom-"+_tableName);
+			    t.setDaemon(true);
+			    return t;
+			}
+		    });
+		Runnable build = new Runnable() {
+			public void run() {
+			    _bloom.rebuild(_conn, _tableName, _authorizations, _numQueryThreads);
+			}
+		    };
+		if(bloomRebuild > 0) {
+		    _bloomBuilder.scheduleWithFixedDelay(build, 0, bloomRebuild, TimeUnit.SECONDS);
+		} else {
+		    _bloomBuilder.submit(build);
+		}
+	    }
+	}
+    }
+
+    /**
+     * Reads a numeric setting, preferring the override for the given partition.
+     */
+    private static long getLong(Map conf, String key, int partitionIndex, long defaultValue) {
+	Object value = conf.get(key+"."+partitionIndex);
+
+	if(value == null) {
+	    value = conf.get(key);
+	}
+	return (value == null) ? defaultValue : Long.parseLong(value.toString());
+    }
+
+    /**
+     * Creates the table should it not exist. Each table is only checked once within a
+     * worker and a table created concurrently by another worker is not an error.
+     *
+     * @param conn The connector to create the table through
+     * @param tableName The table to create
+     */
+    static void ensureTable(Connector conn, String tableName) throws AccumuloException, AccumuloSecurityException {
+	synchronized(_createdTables) {
+	    if(_createdTables.contains(tableName)) {
+		return;
+	    }
+	    if(!conn.tableOperations().exists(tableName)) {
+		try {
+		    conn.tableOperations().create(tableName);
+		    log.info("Created table "+tableName);
+		} catch(TableExistsException e) {
+		    // Created by another worker in the meantime
+		}
+	    }
+	    _createdTables.add(tableName);
+	}
+    }
+
+    /**
+     * Forgets that a table was created such that it is checked, and created should it have
+     * been dropped, the next time it is written to.
+     *
+     * @param tableName The table to forget
+     */
+    static void forgetTable(String tableName) {
+	synchronized(_createdTables) {
+	    _createdTables.remove(tableName);
+	}
+    }
+
+    /**
+     * Replaces the writer once it has rejected mutations, since a writer which has failed
+     * rejects everything after. Every table it wrote to is checked again before its next
+     * write.
+     */
+    private void resetWriters() {
+	try {
+	    if(_multiWriter != null) {
+		_multiWriter.close();
+	    } else {
+		_writer.close();
+	    }
+	} catch(MutationsRejectedException e) {
+	    // The rejection is already being reported
+	}
+
+	if(_multiWriter != null) {
+	    for(String tableName : _tableWriters.keySet()) {
+		forgetTable(tableName);
+	    }
+	    _tableWriters.clear();
+	    _multiWriter = _conn.createMultiTableBatchWriter(_maxMemory, _maxLatency, _maxWriteThreads);
+	} else {
+	    forgetTable(_tableName);
+
+	    try {
+		ensureTable(_conn, _tableName);
+		_writer = _conn.createBatchWriter(_tableName, _maxMemory, _maxLatency, _maxWriteThreads);
+	    } catch(Exception e) {
+		// The failed writer is kept such that the replayed batch fails again
+		log.error("Could not recreate the writer for "+_tableName, e);
+	    }
+	}
+    }
+
+    /**
+     * @param t The individual tuple passed in
+     * @return the writer for the time-partitioned table of the tuple
+     */
+    private BatchWriter getTableWriter(TridentTuple t) throws AccumuloException, AccumuloSecurityException, TableNotFoundException {
+	Object v = t.getValueByField(_timeField);
+	long time = (v instanceof Number) ? ((Number)v).longValue() : Long.parseLong(v.toString());
+	// Formats are cached per minute, the finest granularity worth a table
+	Long minute = time / 60000L;
+	String tableName = _timeTables.get(minute);
+
+	if(tableName == null) {
+	    if(_timeTables.size() >= 1024) {
+		_timeTables.clear();
+	    }
+	    tableName = _tableName+"_"+_timeFormat.format(new Date(time));
+	    _timeTables.put(minute, tableName);
+	}
+	BatchWriter writer = _tableWriters.get(tableName);
+
+	if(writer == null) {
+	    ensureTable(_conn, tableName);
+
+	    try {
+		writer = _multiWriter.getBatchWriter(tableName);
+	    } catch(TableNotFoundException e) {
+		// Dropped since it was created, e.g. aged out and now written to again
+		forgetTable(tableName);
+		ensureTable(_conn, tableName);
+		writer = _multiWriter.getBatchWriter(tableName);
+	    }
+	    _tableWriters.put(tableName, writer);
+	}
+	return writer;
+    }
+
+    private void flushWriters() throws MutationsRejectedException {
+	if(_multiWriter != null) {
+	    _multiWriter.flush();
+	} else {
+	    _writer.flush();
+	}
     }
 
     private static boolean isStaticString(String s) {
@@ -146,92 +456,195 @@ public class AccumuloState implements State {
     }
 
     /**
-     * Used to build a correct mutation from a Tuple t whose values are strings.
+     * Compiles a schema list into its plan where each static string is encoded to its
+     * bytes up front and each field label is kept as is.
      *
-     * @param t The individual tuple passed in
+     * @param schema The schema list for one component of the key or the value
+     * @return the plan of byte arrays and field labels
      */
-    private void setKVPair(TridentTuple t) {
-        StringBuilder rowSB = new StringBuilder(_rowSchema.size());
-        String fieldLabel;
+    private static Object[] compile(List schema) {
+	if(schema == null) {
+	    return new Object[0];
+	}
+	Object[] plan = new Object[schema.size()];
 
-        /// ROW ID
-        for(int i = 0; i < _rowSchema.size(); ++i) {
-            fieldLabel = (String)_rowSchema.get(i);
-
-            if(isStaticString(fieldLabel)) {
-                rowSB.append(fieldLabel.substring(1, fieldLabel.length()-1));
-            } else {
-                rowSB.append(t.getStringByField(fieldLabel));
-            }
-        }
-        _row = new Text(rowSB.toString());
+	for(int i = 0; i < plan.length; ++i) {
+	    String fieldLabel = (String)schema.get(i);
 
-        /// COLUMN FAMILY
-        if(!(_cfSchema == null) && !(_cfSchema.isEmpty())) {
-            StringBuilder cfSB = new StringBuilder(_cfSchema.size());
-
-            for(int i = 0; i < _cfSchema.size(); ++i) {
-		fieldLabel = (String)_cfSchema.get(i);
-
-                if(isStaticString(fieldLabel)) {
-		    cfSB.append(fieldLabel.substring(1, fieldLabel.length()-1));
-                } else {
-                    cfSB.append(t.getStringByField(fieldLabel));
-                }
-            }
-            _cf = new Text(cfSB.toString());
-        } else {
-            _cf = new Text();
+	    if(isStaticString(fieldLabel)) {
+		try {
+		    plan[i] = fieldLabel.substring(1, fieldLabel.length()-1).getBytes("UTF-8");
+		} catch(UnsupportedEncodingException e) {
+		    throw new RuntimeException(e);
+		}
+	    } else {
+		plan[i] = fieldLabel;
+	    }
 	}
-	
-        /// COLUMN QUALIFIER
-        if(!(_cqSchema == null) && !(_cqSchema.isEmpty())) {
-            StringBuilder cqSB = new StringBuilder(_cqSchema.size());
+	return plan;
+    }
+
+    /**
+     * Appends the UTF-8 encoding of a string onto the buffer without building an
+     * intermediate byte array for it.
+     *
+     * @param buf The buffer to append onto
+     * @param s The string to encode
+     */
+    private void appendUTF8(Text buf, CharSequence s) {
+	int len = s.length();
 
-            for(int i = 0; i < _cqSchema.size(); ++i) {
-                fieldLabel = (String)_cqSchema.get(i);
+	if(_encodeBuf.length < len * 3) {
+	    _encodeBuf = new byte[len * 3];
+	}
+	int pos = 0;
+
+	for(int i = 0; i < len; ++i) {
+	    char c = s.charAt(i);
+
+	    if(c < 0x80) {
+		_encodeBuf[pos++] = (byte)c;
+	    } else if(c < 0x800) {
+		_encodeBuf[pos++] = (byte)(0xc0 | (c >> 6));
+		_encodeBuf[pos++] = (byte)(0x80 | (c & 0x3f));
+	    } else if(Character.isHighSurrogate(c) && i+1 < len && Character.isLowSurrogate(s.charAt(i+1))) {
+		int cp = Character.toCodePoint(c, s.charAt(++i));
+		_encodeBuf[pos++] = (byte)(0xf0 | (cp >> 18));
+		_encodeBuf[pos++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+		_encodeBuf[pos++] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+		_encodeBuf[pos++] = (byte)(0x80 | (cp & 0x3f));
+	    } else if(c >= 0xd800 && c <= 0xdfff) {
+		// Unpaired surrogates encode as '?' just as String.getBytes does
+		_encodeBuf[pos++] = (byte)'?';
+	    } else {
+		_encodeBuf[pos++] = (byte)(0xe0 | (c >> 12));
+		_encodeBuf[pos++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+		_encodeBuf[pos++] = (byte)(0x80 | (c & 0x3f));
+	    }
+	}
+	buf.append(_encodeBuf, 0, pos);
+    }
 
-                if(isStaticString(fieldLabel)) {
-                    cqSB.append(fieldLabel.substring(1, fieldLabel.length()-1));
-                } else {
-                    cqSB.append(t.getStringByField(fieldLabel));
+    /**
+     * Rebuilds the buffer from a plan for the Tuple t. Static strings are copied from their
+     * precompiled bytes, byte[] fields are copied as is and any other field is encoded
+     * from its string form.
+     *
+     * @param buf The buffer to clear and fill
+     * @param plan The compiled plan of the component
+     * @param t The individual tuple passed in
+     */
+    private void fill(Text buf, Object[] plan, TridentTuple t) {
+	buf.clear();
+
+	for(int i = 0; i < plan.length; ++i) {
+	    if(plan[i] instanceof byte[]) {
+		byte[] b = (byte[])plan[i];
+		buf.append(b, 0, b.length);
+	    } else {
+		Object v = t.getValueByField((String)plan[i]);
+
+		if(v instanceof byte[]) {
+		    buf.append((byte[])v, 0, ((byte[])v).length);
+		} else if(v instanceof CharSequence) {
+		    appendUTF8(buf, (CharSequence)v);
+		} else {
+		    appendUTF8(buf, String.valueOf(v));
 		}
-            }
-            _cq = new Text(cqSB.toString());
-        } else {
-            _cq = new Text();
-        }
+	    }
+	}
+    }
+
+    /**
+     * Builds the row for a Tuple t from the row plan of the schema. This is shared by
+     * both writes and queries such that a query tuple finds the row its write produced.
+     *
+     * @param t The individual tuple passed in
+     * @return the row as a new Text object
+     */
+    private Text getRow(TridentTuple t) {
+	Text row = new Text();
+	fill(row, _rowPlan, t);
+	return row;
+    }
+
+    /**
+     * Returns the parsed visibility of the current column visibility buffer, parsing
+     * and caching it the first time it is seen.
+     *
+     * @return the column visibility
+     */
+    private ColumnVisibility getVisibility() {
+	ColumnVisibility cv = _visibilities.get(_cv);
+
+	if(cv == null) {
+	    if(_visibilities.size() >= MAX_CACHED_VISIBILITIES) {
+		_visibilities.clear();
+	    }
+	    Text key = new Text(_cv);
+	    cv = new ColumnVisibility(key);
+	    _visibilities.put(key, cv);
+	}
+	return cv;
+    }
+
+    /**
+     * Used to build a correct mutation from a Tuple t. Every component is written into
+     * the reused buffers of this state, which the Mutation copies from when put.
+     *
+     * @param t The individual tuple passed in
+     */
+    private void setKVPair(TridentTuple t) {
+        /// ROW ID
+	fill(_row, _rowPlan, t);
+
+        /// COLUMN FAMILY
+	fill(_cf, _cfPlan, t);
+
+        /// COLUMN QUALIFIER
+	fill(_cq, _cqPlan, t);
 
         /// COLUMN VISIBILITY
+	_cv.clear();
 	if(!(_cvSchema == null) && !(_cvSchema.isEmpty())) {
-            _cv = new Text(t.getStringByField(_cvSchema));
-        } else {
-            _cv = new Text();
+	    Object v = t.getValueByField(_cvSchema);
+
+	    if(v instanceof byte[]) {
+		_cv.append((byte[])v, 0, ((byte[])v).length);
+	    } else {
+		appendUTF8(_cv, String.valueOf(v));
+	    }
         }
 
 	/// TIMESTAMP
         if(!(_tsSchema == null) && !(_tsSchema.isEmpty())) {
-	    _ts = Long.parseLong(t.getStringByField(_tsSchema));
+	    Object v = t.getValueByField(_tsSchema);
+
+	    if(v instanceof Number) {
+		_ts = ((Number)v).longValue();
+	    } else {
+		_ts = Long.parseLong(v.toString());
+	    }
 	} else {
             _ts = System.currentTimeMillis();
         }
 
         /// VALUE
-        if(!(_valSchema == null) && !(_valSchema.isEmpty())) {
-            StringBuilder valSB = new StringBuilder(_valSchema.size());
-
-            for(int i = 0; i < _valSchema.size(); ++i) {
-                fieldLabel = (String)_valSchema.get(i);
+	fill(_val, _valPlan, t);
+    }
 
-                if(isStaticString(fieldLabel)) {
-                    valSB.append(fieldLabel.substring(1, fieldLabel.length()-1));
-                } else {
-                    valSB.append(t.getStringByField(fieldLabel));
-		}
-            }
-	    _val = new Value(valSB.toString().getBytes());
-        } else {
-            _val = new Value("".getBytes());
+    /**
+     * Registers every metric of this state with Storm.
+     *
+     * @param metrics The metrics context handed to the StateFactory
+     * @param bucketSize The interval (in seconds) between metric reports
+     */
+    public void registerMetrics(IMetricsContext metrics, int bucketSize) {
+	if(_cache != null) {
+	    metrics.registerMetric("accumulo-cache", _cache, bucketSize);
+	}
+	if(_bloom != null) {
+	    metrics.registerMetric("accumulo-bloom", _bloom, bucketSize);
 	}
     }
 
@@ -244,23 +657,141 @@ public class AccumuloState implements State {
     }
 	
     public void bulkSet(List<TridentTuple> tuples) {	
-	mutations = new ArrayList<Mutation>();
+	mutations.clear();
+	_written.clear();
 
         for(TridentTuple tuple : tuples) {
             setKVPair(tuple);
+	    if(_cache != null) {
+		_cache.invalidate(_row);
+	    }
+	    if(_bloom != null) {
+		_written.add(new Text(_row));
+	    }
 	    Mutation m = new Mutation(_row);
-            m.put(_cf, _cq, new ColumnVisibility(_cv), _ts, _val);
-            mutations.add(m);
+            m.put(_cf, _cq, getVisibility(), _ts, new Value(_val.getBytes(), 0, _val.getLength()));
+
+	    if(_multiWriter != null) {
+		try {
+		    getTableWriter(tuple).addMutation(m);
+		} catch(MutationsRejectedException e) {
+		    resetWriters();
+		    throw new FailedException("Accumulo rejected mutations for the time-partitioned tables of "+_tableName, e);
+		} catch(Exception e) {
+		    throw new FailedException("Could not write to the time-partitioned tables of "+_tableName, e);
+		}
+	    } else {
+		mutations.add(m);
+	    }
         }
 	try {
-	    _writer.addMutations(mutations);
-	    _writer.flush();	    
+	    if(_multiWriter == null) {
+		_writer.addMutations(mutations);
+	    }
+
+	    flushWriters();
+
+	    // Rows are added only once durable: a rebuild scanning from then on finds them and
+	    // one already scanning holds a second filter to which they are added as well
+	    for(Text row : _written) {
+		_bloom.add(row);
+	    }
 	} catch(MutationsRejectedException e) {
-	    // TODO: This
+	    resetWriters();
+
+	    if(_multiWriter != null) {
+		throw new FailedException("Accumulo rejected mutations for the time-partitioned tables of "+_tableName, e);
+	    }
+	    throw new FailedException("Accumulo rejected mutations for "+_tableName, e);
 	}
     }
 	
-    public List<String> bulkGet(List<String> queries) {
-	return new ArrayList<String>();
+    /**
+     * Fetches the row of every query tuple through a single pass of the BatchScanner.
+     * Since a BatchScanner returns entries in no particular order they are gathered by
+     * row and handed back aligned with the order of the query tuples. Rows found within
+     * the cache are not scanned.
+     *
+     * @param queries The list of Trident tuples from which to build each row
+     * @return A list, aligned to the queries, where each element holds every Key Value
+     *         pair of the corresponding row; rows which do not exist yield an empty map
+     */
+    public List<SortedMap<Key, Value>> bulkGet(List<TridentTuple> queries) {
+	return bulkGet(queries, null);
+    }
+
+    /**
+     * Fetches the row of every query tuple as above, though only the Key Value pairs which
+     * pass the filter are returned. The filter is pushed down into the scanner such that it
+     * runs on the tablet servers. Filtered results bypass the cache since they do not
+     * hold whole rows.
+     *
+     * @param queries The list of Trident tuples from which to build each row
+     * @param filter The filter to apply, or null to fetch whole rows
+     * @return A list, aligned to the queries, where each element holds every matching Key
+     *         Value pair of the corresponding row
+     */
+    public List<SortedMap<Key, Value>> bulkGet(List<TridentTuple> queries, ScanFilter filter) {
+	if(_timeField != null) {
+	    throw new FailedException("Queries are not supported over the time-partitioned tables of "+_tableName);
+	}
+	if(filter != null && filter.isEmpty()) {
+	    filter = null;
+	}
+	RowCache cache = (filter == null) ? _cache : null;
+	List<Text> rows = new ArrayList<Text>(queries.size());
+	Map<Text, SortedMap<Key, Value>> results = new HashMap<Text, SortedMap<Key, Value>>();
+	List<Range> ranges = new ArrayList<Range>();
+	List<Text> misses = new ArrayList<Text>();
+
+	for(TridentTuple query : queries) {
+	    Text row = getRow(query);
+	    rows.add(row);
+
+	    if(!results.containsKey(row)) {
+		SortedMap<Key, Value> cached = (cache == null) ? null : cache.get(row);
+
+		if(cached != null) {
+		    results.put(row, cached);
+		} else if(_bloom != null && !_bloom.mightContain(row)) {
+		    results.put(row, new TreeMap<Key, Value>());
+		} else {
+		    results.put(row, new TreeMap<Key, Value>());
+		    ranges.add(Range.exact(row));
+		    misses.add(row);
+		}
+	    }
+	}
+
+	if(!ranges.isEmpty()) {
+	    if(filter != null) {
+		filter.configure(_scanner);
+	    } else {
+		_scanner.clearColumns();
+		_scanner.clearScanIterators();
+	    }
+	    _scanner.setRanges(ranges);
+
+	    for(Map.Entry<Key, Value> entry : _scanner) {
+		results.get(entry.getKey().getRow()).put(entry.getKey(), entry.getValue());
+	    }
+
+	    if(filter != null) {
+		for(Text row : misses) {
+		    filter.trim(results.get(row));
+		}
+	    }
+	    if(cache != null) {
+		for(Text row : misses) {
+		    cache.put(row, results.get(row));
+		}
+	    }
+	}
+
+	List<SortedMap<Key, Value>> aligned = new ArrayList<SortedMap<Key, Value>>(rows.size());
+	for(Text row : rows) {
+	    aligned.add(results.get(row));
+	}
+	return aligned;
     }
 }
@@ -0,0 +1,151 @@
+package org.brennonyork.poseidon.accumulo;
+
+import backtype.storm.metric.api.IMetric;
+
+import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.FirstEntryInRowIterator;
+import org.apache.accumulo.core.security.Authorizations;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.bloom.BloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+import org.apache.hadoop.util.hash.Hash;
+import org.apache.log4j.Logger;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory Bloom filter over every row of an Accumulo table.
+ *
+ * The RowBloomFilter sits in front of the BatchScanner of an AccumuloState such that rows
+ * which definitely do not exist are answered without a round trip to the tablet servers.
+ * The filter is sized for an expected number of rows and a target false positive rate,
+ * built from a scan of the first entry of each row, and kept current by adding every row
+ * written through the state. Since rows deleted outside of the state are never removed the
+ * filter is periodically rebuilt from a fresh scan. Until the first build completes every
+ * row is reported as possibly present. The filter is also a Storm metric reporting the
+ * number of lookups, the scans avoided and the rows held since the previous report.
+ *
+ * @author Brennon York
+ */
+public class RowBloomFilter implements IMetric {
+    private static Logger log = Logger.getLogger(RowBloomFilter.class);
+
+    private int _vectorSize;
+    private int _numHashes;
+
+    private BloomFilter _filter;
+    private BloomFilter _building;
+    private long _numRows = 0;
+
+    private long _lookups = 0;
+    private long _avoided = 0;
+
+    /**
+     * @param expectedRows The number of rows the filter is sized for
+     * @param falsePositiveRate The target rate of false positives once expectedRows are held
+     */
+    public RowBloomFilter(int expectedRows, double falsePositiveRate) {
+	double ln2 = Math.log(2);
+
+	_vectorSize = (int)Math.ceil(-expectedRows * Math.log(falsePositiveRate) / (ln2 * ln2));
+	_numHashes = Math.max(1, (int)Math.round((double)_vectorSize / expectedRows * ln2));
+    }
+
+    private BloomFilter newFilter() {
+	return new BloomFilter(_vectorSize, _numHashes, Hash.MURMUR_HASH);
+    }
+
+    private static Key toKey(Text row) {
+	return new Key(Arrays.copyOf(row.getBytes(), row.getLength()));
+    }
+
+    /**
+     * @param row The row to look up
+     * @return false if the row definitely does not exist, true if it may
+     */
+    public synchronized boolean mightContain(Text row) {
+	_lookups += 1;
+
+	if(_filter == null || _filter.membershipTest(toKey(row))) {
+	    return true;
+	}
+	_avoided += 1;
+	return false;
+    }
+
+    /**
+     * Adds a row, typically because it has just been written.
+     *
+     * @param row The row to add
+     */
+    public synchronized void add(Text row) {
+	Key key = toKey(row);
+
+	if(_filter != null) {
+	    _filter.add(key);
+	}
+	if(_building != null) {
+	    _building.add(key);
+	}
+    }
+
+    /**
+     * Rebuilds the filter from a scan of the table. Rows added during the scan are added
+     * to both the current and the new filter, the latter then replacing the former.
+     *
+     * @param conn The connector to scan through
+     * @param tableName The table whose rows are held
+     * @param auths The authorizations to scan with
+     * @param numThreads The number of threads of the scan
+     */
+    public void rebuild(Connector conn, String tableName, Authorizations auths, int numThreads) {
+	BatchScanner scanner = null;
+	long numRows = 0;
+
+	synchronized(this) {
+	    _building = newFilter();
+	}
+	try {
+	    scanner = conn.createBatchScanner(tableName, auths, numThreads);
+	    scanner.setRanges(Arrays.asList(new Range()));
+	    scanner.addScanIterator(new IteratorSetting(30, "rowBloomFilter", FirstEntryInRowIterator.class));
+
+	    for(Map.Entry<org.apache.accumulo.core.data.Key, Value> entry : scanner) {
+		add(entry.getKey().getRow());
+		numRows += 1;
+	    }
+	    synchronized(this) {
+		_filter = _building;
+		_numRows = numRows;
+	    }
+	    log.info("Rebuilt the row bloom filter of "+tableName+" with "+numRows+" rows");
+	} catch(Exception e) {
+	    log.warn("Could not rebuild the row bloom filter of "+tableName, e);
+	} finally {
+	    synchronized(this) {
+		_building = null;
+	    }
+	    if(scanner != null) {
+		scanner.close();
+	    }
+	}
+    }
+
+    public synchronized Object getValueAndReset() {
+	Map<String, Object> stats = new HashMap<String, Object>();
+	stats.put("lookups", _lookups);
+	stats.put("avoided-scans", _avoided);
+	stats.put("built", _filter != null);
+	stats.put("rows-at-build", _numRows);
+	_lookups = 0;
+	_avoided = 0;
+	return stats;
+    }
+}
@@ -0,0 +1,122 @@
+package org.brennonyork.poseidon.accumulo;
+
+import backtype.storm.metric.api.IMetric;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+
+import org.apache.hadoop.io.Text;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Bounded, least recently used cache of Accumulo rows.
+ *
+ * The RowCache sits in front of the BatchScanner of an AccumuloState such that hot rows
+ * are answered from memory. Entries are evicted once the cache grows beyond its maximum
+ * number of rows or once they have lived longer than the time to live. Rows which did not
+ * exist can be cached as well (negative caching) and are stored as an empty map. The cache
+ * is also a Storm metric reporting hits, misses, evictions, the hit rate, and the current
+ * size since the previous report.
+ *
+ * @author Brennon York
+ */
+public class RowCache implements IMetric {
+    /** Cached row along with the time at which it expires */
+    private static class CacheEntry {
+	SortedMap<Key, Value> cells;
+	long expireTime;
+    }
+
+    private LinkedHashMap<Text, CacheEntry> _cache;
+    private int _maxSize;
+    private long _ttl;
+    private boolean _cacheMisses;
+
+    private long _hits = 0;
+    private long _misses = 0;
+    private long _evictions = 0;
+
+    /**
+     * @param maxSize The maximum number of rows to maintain in memory
+     * @param ttl The time (in milliseconds) a row remains valid after being cached
+     * @param cacheMisses Predicate to determine whether rows which do not exist are cached
+     */
+    public RowCache(int maxSize, long ttl, boolean cacheMisses) {
+	_maxSize = maxSize;
+	_ttl = ttl;
+	_cacheMisses = cacheMisses;
+	_cache = new LinkedHashMap<Text, CacheEntry>(16, 0.75f, true /* access order */) {
+	    protected boolean removeEldestEntry(Map.Entry<Text, CacheEntry> eldest) {
+		if(size() > _maxSize) {
+		    _evictions += 1;
+		    return true;
+		}
+		return false;
+	    }
+	};
+    }
+
+    /**
+     * @param row The row to look up
+     * @return the cached cells of the row, an empty map if the row is cached as missing,
+     *         or null if the row is not cached
+     */
+    public synchronized SortedMap<Key, Value> get(Text row) {
+	CacheEntry entry = _cache.get(row);
+
+	if(entry == null) {
+	    _misses += 1;
+	    return null;
+	}
+	if(entry.expireTime < System.currentTimeMillis()) {
+	    _cache.remove(row);
+	    _evictions += 1;
+	    _misses += 1;
+	    return null;
+	}
+	_hits += 1;
+	return entry.cells;
+    }
+
+    /**
+     * @param row The row to cache
+     * @param cells Every Key Value pair of the row; an empty map denotes a missing row
+     */
+    public synchronized void put(Text row, SortedMap<Key, Value> cells) {
+	if(cells.isEmpty() && !_cacheMisses) {
+	    return;
+	}
+
+	CacheEntry entry = new CacheEntry();
+	entry.cells = Collections.unmodifiableSortedMap(cells);
+	entry.expireTime = System.currentTimeMillis() + _ttl;
+	_cache.put(row, entry);
+    }
+
+    /**
+     * Removes a row from the cache, typically because it has just been written.
+     *
+     * @param row The row to remove
+     */
+    public synchronized void invalidate(Text row) {
+	_cache.remove(row);
+    }
+
+    public synchronized Object getValueAndReset() {
+	Map<String, Object> stats = new HashMap<String, Object>();
+	stats.put("hits", _hits);
+	stats.put("misses", _misses);
+	stats.put("evictions", _evictions);
+	stats.put("hit-rate", (_hits + _misses) == 0 ? 0.0 : ((double)_hits / (double)(_hits + _misses)));
+	stats.put("size", _cache.size());
+	_hits = 0;
+	_misses = 0;
+	_evictions = 0;
+	return stats;
+    }
+}
@@ -0,0 +1,154 @@
+package org.brennonyork.poseidon.accumulo;
+
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.ScannerBase;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.FirstEntryInRowIterator;
+import org.apache.accumulo.core.iterators.user.RegExFilter;
+import org.apache.accumulo.core.iterators.user.TimestampFilter;
+
+import org.apache.hadoop.io.Text;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.regex.Pattern;
+
+/**
+ * A declarative set of filters applied to the rows fetched by an AccumuloQuery. Each filter
+ * is translated into either a fetched column or a scan iterator on the BatchScanner such
+ * that only the matching Key Value pairs ever leave the tablet servers.</br></br>
+ *
+ * <ul>
+ *   <li>column families - <code>fetchColumnFamily</code> on the scanner</li>
+ *   <li>qualifier prefix and value regex - a single <code>RegExFilter</code></li>
+ *   <li>timestamp range - a <code>TimestampFilter</code></li>
+ *   <li>first-N - a <code>FirstEntryInRowIterator</code> when N is one, otherwise each row
+ *       is trimmed as it is gathered</li>
+ * </ul>
+ */
+public class ScanFilter implements Serializable {
+    private static final String REGEX_ITERATOR = "scanFilterRegex";
+    private static final String TIMESTAMP_ITERATOR = "scanFilterTimestamp";
+    private static final String FIRST_ITERATOR = "scanFilterFirst";
+    /** Priorities above the table's VersioningIterator (20) such that only the latest
+     *  versions are filtered */
+    private static final int TIMESTAMP_PRIORITY = 25;
+    private static final int REGEX_PRIORITY = 26;
+    private static final int FIRST_PRIORITY = 27;
+
+    private List<String> _columnFamilies = new ArrayList<String>();
+    private String _qualifierPrefix;
+    private String _valueRegex;
+    private Long _startTime;
+    private Long _endTime;
+    private int _firstN = 0;
+
+    /**
+     * Only returns Key Value pairs within the given column families.
+     */
+    public ScanFilter columnFamilies(String... cfs) {
+	for(String cf : cfs) {
+	    _columnFamilies.add(cf);
+	}
+	return this;
+    }
+
+    /**
+     * Only returns Key Value pairs whose column qualifier starts with the given prefix.
+     */
+    public ScanFilter qualifierPrefix(String prefix) {
+	_qualifierPrefix = prefix;
+	return this;
+    }
+
+    /**
+     * Only returns Key Value pairs whose entire value matches the given regex.
+     */
+    public ScanFilter valueRegex(String regex) {
+	_valueRegex = regex;
+	return this;
+    }
+
+    /**
+     * Only returns Key Value pairs whose timestamp lies within [start, end].
+     */
+    public ScanFilter timestampRange(long start, long end) {
+	_startTime = start;
+	_endTime = end;
+	return this;
+    }
+
+    /**
+     * Only returns the first N Key Value pairs of each row.
+     */
+    public ScanFilter firstN(int n) {
+	_firstN = n;
+	return this;
+    }
+
+    public boolean isEmpty() {
+	return _columnFamilies.isEmpty() &&
+	    _qualifierPrefix == null &&
+	    _valueRegex == null &&
+	    _startTime == null &&
+	    _firstN <= 0;
+    }
+
+    /**
+     * Resets the scanner and applies every filter onto it. This is called before each
+     * scan since a single scanner is shared by every query against an AccumuloState.
+     *
+     * @param scanner The scanner to configure
+     */
+    public void configure(ScannerBase scanner) {
+	scanner.clearColumns();
+	scanner.clearScanIterators();
+
+	for(String cf : _columnFamilies) {
+	    scanner.fetchColumnFamily(new Text(cf));
+	}
+	if(_startTime != null) {
+	    IteratorSetting setting = new IteratorSetting(TIMESTAMP_PRIORITY, TIMESTAMP_ITERATOR, TimestampFilter.class);
+	    TimestampFilter.setRange(setting, _startTime, true, _endTime, true);
+	    scanner.addScanIterator(setting);
+	}
+	if(_qualifierPrefix != null || _valueRegex != null) {
+	    IteratorSetting setting = new IteratorSetting(REGEX_PRIORITY, REGEX_ITERATOR, RegExFilter.class);
+	    RegExFilter.setRegexs(setting,
+				  null,
+				  null,
+				  _qualifierPrefix == null ? null : Pattern.quote(_qualifierPrefix) + ".*",
+				  _valueRegex,
+				  false);
+	    scanner.addScanIterator(setting);
+	}
+	if(_firstN == 1) {
+	    scanner.addScanIterator(new IteratorSetting(FIRST_PRIORITY, FIRST_ITERATOR, FirstEntryInRowIterator.class));
+	}
+    }
+
+    /**
+     * Trims a gathered row down to its first N Key Value pairs when that could not be
+     * done on the tablet servers.
+     *
+     * @param row The row to trim in place
+     */
+    public void trim(SortedMap<Key, Value> row) {
+	if(_firstN <= 1 || row.size() <= _firstN) {
+	    return;
+	}
+	Iterator<Key> it = row.keySet().iterator();
+
+	for(int i = 0; it.hasNext(); ++i) {
+	    it.next();
+
+	    if(i >= _firstN) {
+		it.remove();
+	    }
+	}
+    }
+}
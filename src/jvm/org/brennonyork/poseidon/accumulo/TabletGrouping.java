@@ -0,0 +1,154 @@
+package org.brennonyork.poseidon.accumulo;
+
+import backtype.storm.generated.GlobalStreamId;
+import backtype.storm.grouping.CustomStreamGrouping;
+import backtype.storm.task.WorkerTopologyContext;
+import backtype.storm.tuple.Fields;
+
+import org.brennonyork.siren.KVSchema;
+
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.ZooKeeperInstance;
+
+import org.apache.hadoop.io.Text;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Partitions a stream by the Accumulo tablet each tuple's row falls within, such that each
+ * AccumuloState partition only queries the tablets (and thereby tablet servers) of a
+ * contiguous slice of the table rather than fanning out to the entire cluster for every
+ * batch. The split points of the table are read when the grouping is prepared and again
+ * every <code>accumulo.splits.refresh</code> seconds on a background thread, such that
+ * routing a tuple never waits on Accumulo. For example:</br></br>
+ *
+ * <code>stream.partition(new TabletGrouping(config, schema))</br>
+ *       .stateQuery(accumulo, schema.getFields(), new AccumuloQuery(),</br>
+ *                   new Fields("column-family", "column-qualifier", "value"));</code>
+ *
+ * Each tuple must carry every field within the row plan of the KVSchema. Should the splits
+ * not be readable every tuple falls within a single tablet and is routed to the first task.
+ */
+public class TabletGrouping implements CustomStreamGrouping {
+    private static Logger log = Logger.getLogger(TabletGrouping.class);
+
+    private AccumuloConfig _config;
+    private String _tableName;
+    private List _rowSchema;
+
+    private List<Integer> _targetTasks;
+    private int[] _rowIndexes;
+    /** Sorted split points, replaced as a whole by each refresh */
+    private volatile List<Text> _splits = new ArrayList<Text>();
+    private long _refreshInterval = 300000;
+    private transient Connector _conn;
+    private transient ScheduledExecutorService _refresher;
+
+    /**
+     * @param config AccumuoConfig object with each variable set for the given cluster
+     * @param schema KVSchema representing how this data is laid out within Accumulo
+     */
+    public TabletGrouping(AccumuloConfig config, KVSchema schema) {
+	Map serialized = schema.serialize();
+
+	_config = config;
+	_tableName = (String)serialized.get(KVSchema.KV_TABLE_NAME);
+	_rowSchema = (List)serialized.get(KVSchema.KV_ROW);
+    }
+
+    private static boolean isStaticString(String s) {
+	return s.startsWith("\"") && s.endsWith("\"");
+    }
+
+    public void prepare(WorkerTopologyContext context, GlobalStreamId stream, List<Integer> targetTasks) {
+	Fields fields = context.getComponentOutputFields(stream);
+
+	_targetTasks = targetTasks;
+	_rowIndexes = new int[_rowSchema.size()];
+
+	for(int i = 0; i < _rowIndexes.length; ++i) {
+	    String fieldLabel = (String)_rowSchema.get(i);
+	    _rowIndexes[i] = isStaticString(fieldLabel) ? -1 : fields.fieldIndex(fieldLabel);
+	}
+	if(_config.containsKey(AccumuloConfig.ACCUMULO_SPLITS_REFRESH)) {
+	    _refreshInterval = Long.parseLong(_config.get(AccumuloConfig.ACCUMULO_SPLITS_REFRESH).toString()) * 1000L;
+	}
+	refreshSplits();
+
+	if(_refreshInterval > 0) {
+	    _refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		    public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "accumulo-splits-"+_tableName);
+			t.setDaemon(true);
+			return t;
+		    }
+		});
+	    _refresher.scheduleWithFixedDelay(new Runnable() {
+		    public void run() {
+			refreshSplits();
+		    }
+		}, _refreshInterval, _refreshInterval, TimeUnit.MILLISECONDS);
+	}
+    }
+
+    /**
+     * Reads the current split points of the table. On failure the previous split points
+     * are kept.
+     */
+    private void refreshSplits() {
+	try {
+	    if(_conn == null) {
+		_conn = new ZooKeeperInstance(_config.get(AccumuloConfig.ZOOKEEPER_INSTANCE_NAME).toString(),
+					      _config.get(AccumuloConfig.ZOOKEEPER_SERVER_LIST).toString())
+		    .getConnector(_config.get(AccumuloConfig.ACCUMULO_USER).toString(),
+				  _config.get(AccumuloConfig.ACCUMULO_PASSWORD).toString());
+	    }
+	    List<Text> splits = new ArrayList<Text>(_conn.tableOperations().getSplits(_tableName));
+	    Collections.sort(splits);
+	    _splits = splits;
+	} catch(Exception e) {
+	    log.warn("Could not read the splits of "+_tableName, e);
+	}
+    }
+
+    private Text getRow(List<Object> values) {
+	StringBuilder rowSB = new StringBuilder();
+
+	for(int i = 0; i < _rowIndexes.length; ++i) {
+	    if(_rowIndexes[i] < 0) {
+		String fieldLabel = (String)_rowSchema.get(i);
+		rowSB.append(fieldLabel.substring(1, fieldLabel.length()-1));
+	    } else {
+		rowSB.append(values.get(_rowIndexes[i]));
+	    }
+	}
+	return new Text(rowSB.toString());
+    }
+
+    /**
+     * Routes a tuple to the task owning its tablet. Tablets are spread over the tasks in
+     * contiguous runs such that each task covers one slice of the table.
+     */
+    public List<Integer> chooseTasks(int taskId, List<Object> values) {
+	List<Text> splits = _splits;
+
+	// Tablets end on (and include) their split point
+	int tablet = Collections.binarySearch(splits, getRow(values));
+	if(tablet < 0) {
+	    tablet = -(tablet + 1);
+	}
+	int numTablets = splits.size() + 1;
+	int task = (int)((long)tablet * _targetTasks.size() / numTablets);
+
+	return Arrays.asList(_targetTasks.get(task));
+    }
+}
@@ -0,0 +1,77 @@
+package org.brennonyork.poseidon.accumulo.test;
+
+import backtype.storm.tuple.Fields;
+
+import org.brennonyork.poseidon.accumulo.AccumuloConfig;
+import org.brennonyork.poseidon.accumulo.AccumuloState;
+import org.brennonyork.siren.KVSchema;
+
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.mock.MockInstance;
+
+import storm.trident.tuple.TridentTuple;
+import storm.trident.tuple.TridentTupleView;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Measures the throughput and the bytes allocated per tuple of AccumuloState.bulkSet
+ * against a MockInstance. The allocation includes that of the MockInstance storing each
+ * mutation.
+ */
+public class AccumuloStateBenchmark {
+    private static final int BATCH_SIZE = 1000;
+
+    private static long allocatedBytes() {
+	return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean())
+	    .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void main(String[] args) throws Exception {
+	int batches = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+	Connector conn = new MockInstance("bench").getConnector("root", "".getBytes());
+
+	KVSchema schema = new KVSchema("flows", "sip");
+	schema.colFam.add("dip");
+	schema.colQual.add("sport").addStatic(":").add("dport").addStatic(":").add("proto");
+	schema.value.add("bytes");
+	schema.timestamp = "ts";
+
+	AccumuloConfig config = new AccumuloConfig();
+	config.setZookeeperInstName("bench");
+	config.setZookeeperServers("localhost");
+	config.setAccumuloUser("root");
+	config.setAccumuloPassword("");
+	AccumuloState state = new AccumuloState(new HashMap(), config, schema.serialize(), conn, 0, 1);
+
+	TridentTupleView.FreshOutputFactory factory =
+	    new TridentTupleView.FreshOutputFactory(new Fields("sip", "dip", "sport", "dport", "proto", "bytes", "ts"));
+	List<TridentTuple> batch = new ArrayList<TridentTuple>(BATCH_SIZE);
+	for(int i = 0; i < BATCH_SIZE; ++i) {
+	    batch.add(factory.create(Arrays.<Object>asList("10.0.0."+(i % 256), "10.1."+(i / 256)+"."+(i % 256),
+							     ""+(1024 + i), "80", "tcp", ""+(1500L * i), "1391990400000")));
+	}
+
+	// Warms up the write path before measuring it
+	for(int i = 0; i < batches / 4; ++i) {
+	    state.bulkSet(batch);
+	}
+
+	long allocated = allocatedBytes();
+	long start = System.nanoTime();
+	for(int i = 0; i < batches; ++i) {
+	    state.bulkSet(batch);
+	}
+	long elapsed = System.nanoTime() - start;
+	allocated = allocatedBytes() - allocated;
+
+	long tuples = (long)batches * BATCH_SIZE;
+	System.out.println(tuples+" tuples: "+(allocated / tuples)+" bytes allocated per tuple, "+
+			   (tuples * 1000000000L / elapsed)+" tuples per second");
+    }
+}
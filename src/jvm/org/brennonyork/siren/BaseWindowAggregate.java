@@ -0,0 +1,102 @@
+package org.brennonyork.siren;
+
+import backtype.storm.Config;
+import backtype.storm.Constants;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.topology.base.BaseRichBolt;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups tuples by the key fields of a KVSchema over time windows and emits one tuple of
+ * the KVSchema's fields per group as each window closes. Shared by WindowAggregate and
+ * SketchAggregate, which decide what is kept per group.
+ *
+ * @author Brennon York
+ */
+abstract class BaseWindowAggregate extends BaseRichBolt {
+    private static final long serialVersionUID = 1L;
+
+    OutputCollector _collector;
+    /** Every row, column family, column qualifier and column visibility field */
+    Fields _keyFields;
+    private Fields _outputFields;
+    private String _tsField;
+    private List<String> _valueFields;
+    long _windowMs;
+    long _slideMs;
+
+    /**
+     * @param schema KVSchema of the downstream writer whose key fields group the tuples
+     * @param windowSize Length (in seconds) of each window
+     * @param slide Time (in seconds) between the start of consecutive windows, which must
+     *              evenly divide windowSize
+     */
+    @SuppressWarnings("unchecked") // KVSchema exposes its field names as raw Lists
+    BaseWindowAggregate(KVSchema schema, int windowSize, int slide) {
+	if(slide <= 0 || windowSize % slide != 0) {
+	    throw new IllegalArgumentException("Slide of "+slide+"s does not divide a window of "+windowSize+"s");
+	}
+	List<String> keyFields = new ArrayList<String>(schema.row.getFields());
+	keyFields.addAll(schema.colFam.getFields());
+	keyFields.addAll(schema.colQual.getFields());
+
+	if(!schema.colVis.isEmpty()) {
+	    keyFields.add(schema.colVis);
+	}
+	_keyFields = new Fields(keyFields);
+	_outputFields = schema.getFields();
+	_tsField = schema.timestamp;
+	_valueFields = new ArrayList<String>(schema.value.getFields());
+	_windowMs = windowSize * 1000L;
+	_slideMs = slide * 1000L;
+    }
+
+    static boolean isTickTuple(Tuple tuple) {
+	return tuple.getSourceComponent().equals(Constants.SYSTEM_COMPONENT_ID)
+	    && tuple.getSourceStreamId().equals(Constants.SYSTEM_TICK_STREAM_ID);
+    }
+
+    /**
+     * Emits the tuple of one group: the key fields of the group, the value within every
+     * value field and the end of the window within the timestamp field.
+     *
+     * @param key The values of the key fields, as selected from an input tuple
+     * @param value The aggregate of the group
+     * @param ts The end (in ms) of the window as a base-10 string
+     */
+    void emitGroup(List<Object> key, String value, String ts) {
+	Values v = new Values();
+
+	for(String field : _outputFields) {
+	    if(field.equals(_tsField)) {
+		v.add(ts);
+	    } else if(_valueFields.contains(field)) {
+		v.add(value);
+	    } else {
+		v.add(key.get(_keyFields.fieldIndex(field)));
+	    }
+	}
+	_collector.emit(v);
+    }
+
+    public void cleanup() { }
+
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+	declarer.declare(_outputFields);
+    }
+
+    public Map<String, Object> getComponentConfiguration() {
+	// Tick tuples close windows while no tuples arrive
+	Map<String, Object> conf = new HashMap<String, Object>();
+	conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, 1);
+	return conf;
+    }
+}
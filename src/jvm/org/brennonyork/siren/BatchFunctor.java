@@ -0,0 +1,26 @@
+package org.brennonyork.siren;
+
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Interface for developers to define functions evaluated over a batch of Tuples at once,
+ * such that costly work (e.g. lookups against an external service) is amortized across
+ * the batch. Used in tandem with the Function class.
+ *
+ * @author Brennon York
+ */
+public interface BatchFunctor extends Serializable {
+    /**
+     * This will be the function that is applied to each batch of tuples in the
+     * stream that passes through this bolt.
+     *
+     * @param tuples the input Storm Tuples collected by the Function class
+     * @return a List aligned with the input where each element is the new Values
+     *         object for the corresponding tuple, or null to emit nothing for it
+     */
+    public List<Values> evalBatch(List<Tuple> tuples);
+}
@@ -1,12 +1,17 @@
 package org.brennonyork.siren;
 
+import backtype.storm.Config;
+import backtype.storm.Constants;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.task.OutputCollector;
 import backtype.storm.topology.OutputFieldsDeclarer;
 import backtype.storm.topology.base.BaseRichBolt;
 import backtype.storm.tuple.Fields;
 import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
 import java.util.Random;
@@ -14,11 +19,16 @@ import java.util.Random;
 import org.apache.hadoop.io.Text;
 import org.apache.log4j.Logger;
 
+import org.brennonyork.siren.metrics.ComponentMetrics;
+import org.brennonyork.siren.metrics.LogLinearHistogram;
+import org.brennonyork.siren.metrics.StripedCounter;
+
 import org.apache.accumulo.core.client.mock.MockInstance;
 import org.apache.accumulo.core.security.ColumnVisibility;
 import org.apache.accumulo.core.data.Mutation;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.MutationsRejectedException;
 import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.client.ZooKeeperInstance;
 
@@ -31,6 +41,21 @@ import org.apache.accumulo.core.client.ZooKeeperInstance;
  * into a series of Key Value mutations which are directly inserted into the
  * given table.</br></br>
  *
+ * A tuple carrying a RecordBlock is written record by record and acknowledged once the
+ * whole block has been handed to the BatchWriter.</br></br>
+ *
+ * Mutations are counted as written only once a flush of the BatchWriter has succeeded. The
+ * bolt flushes the writer itself, on a one second tick, once its latency has passed since
+ * the last flush, and records how long each flush took.</br></br>
+ *
+ * With <code>confirmWrites(fields)</code> the given fields of every record are emitted on
+ * the <code>written</code> stream once the flush holding it has succeeded, e.g. to tell a
+ * Deduplicate bolt which records are stored. Input tuples are then held until that flush
+ * and acked once it succeeds, or failed should the writer reject it such that a replaying
+ * spout writes them again. The flush interval must therefore stay well within the message
+ * timeout. A writer which rejected mutations is replaced, since it would otherwise reject
+ * everything after.</br></br>
+ *
  * <b>Configuration</b></br>
  * <table>
  *   <tr><td>zookeeper.instance.name</td>
@@ -51,18 +76,32 @@ import org.apache.accumulo.core.client.ZooKeeperInstance;
  *   <tr><td>Null</td>
  *       <td>Because all entries are inserted into Accumulo through mutations there
  *           are no tuples left to output.</td></tr>
+ *   <tr><td>written (stream)</td>
+ *       <td>The fields given to <code>confirmWrites</code> of each flushed record.</td></tr>
  * </table>
  * 
  * <b>Author:</b> <a href="mailto:brennon.york@gmail.com">Brennon York</a>
  * @author Brennon York
  */
 public class BatchMutation extends BaseRichBolt {
+    public static final String WRITTEN_STREAM = "written";
     static Logger log = Logger.getLogger(BatchMutation.class);
 	
     private OutputCollector _collector;
     private Connector _conn;
     private BatchWriter _writer;
     private boolean _debug = false;
+    private StripedCounter _recordsIn;
+    private StripedCounter _mutationsWritten;
+    private StripedCounter _mutationsRejected;
+    private LogLinearHistogram _flushTime;
+    private long _buffered = 0; // mutations added since the last flush
+    private long _lastFlush;
+    private Fields _confirmFields;
+    /** Confirmed fields of the records added since the last flush */
+    private List<List<Object>> _unconfirmed = new ArrayList<List<Object>>();
+    /** Input tuples held until the flush confirming their records */
+    private List<Tuple> _held = new ArrayList<Tuple>();
 	
     private Map _s;
     private List _rowSchema;
@@ -99,8 +138,23 @@ public class BatchMutation extends BaseRichBolt {
 	_debug = debug;
     }
 
+    /**
+     * Emits the given fields of every record on the written stream once it has been flushed.
+     */
+    public BatchMutation confirmWrites(Fields fields) {
+	_confirmFields = fields;
+	return this;
+    }
+
     public void prepare(Map conf, TopologyContext context, OutputCollector collector) {
 	_collector = collector;
+
+	ComponentMetrics metrics = ComponentMetrics.register(conf, context);
+	_recordsIn = metrics.counter(ComponentMetrics.RECORDS_IN);
+	_mutationsWritten = metrics.counter(ComponentMetrics.MUTATIONS_WRITTEN);
+	_mutationsRejected = metrics.counter(ComponentMetrics.MUTATIONS_REJECTED);
+	_flushTime = metrics.histogram(ComponentMetrics.FLUSH_MILLIS);
+
 	_TableName = (String)_s.get("table.name");
 	_rowSchema = (List)_s.get("row");
 	_cfSchema = (List)_s.get("column.family");
@@ -149,6 +203,11 @@ public class BatchMutation extends BaseRichBolt {
 	    }
 	}
 
+	createWriter();
+	_lastFlush = System.currentTimeMillis();
+    }
+
+    private void createWriter() {
 	try {
 	    _writer = _conn.createBatchWriter(_TableName, _MemoryBuffer, _timeout, _NumThreads);	
 	} catch(Exception e) {
@@ -156,6 +215,11 @@ public class BatchMutation extends BaseRichBolt {
 	}
     }
 
+    private static boolean isTickTuple(Tuple tuple) {
+	return tuple.getSourceComponent().equals(Constants.SYSTEM_COMPONENT_ID)
+	    && tuple.getSourceStreamId().equals(Constants.SYSTEM_TICK_STREAM_ID);
+    }
+
     private static boolean isStaticString(String s) {
 	if(s.startsWith("\"") && s.endsWith("\"")) {
 	    return true;
@@ -250,6 +314,38 @@ public class BatchMutation extends BaseRichBolt {
     }
 
     public void execute(Tuple tuple) {
+	if(isTickTuple(tuple)) {
+	    if(System.currentTimeMillis() - _lastFlush >= _timeout) {
+		flush(false);
+	    }
+	    return;
+	}
+	boolean added = true;
+
+	if(RecordBlock.isBlock(tuple)) {
+	    RecordBlock block = (RecordBlock)tuple.getValue(0);
+
+	    for(int i = 0; i < block.size(); ++i) {
+		added &= write(block.tupleAt(i, tuple));
+	    }
+	} else {
+	    added = write(tuple);
+	}
+
+	if(_confirmFields == null) {
+	    _collector.ack(tuple);
+	} else if(added) {
+	    _held.add(tuple);
+	} else {
+	    _collector.fail(tuple);
+	}
+    }
+
+    /**
+     * @return whether the mutation of the tuple was added to the BatchWriter
+     */
+    private boolean write(Tuple tuple) {
+	_recordsIn.incr();
 	setKVPair(tuple);
 
 	Mutation m = new Mutation(_row);
@@ -259,27 +355,78 @@ public class BatchMutation extends BaseRichBolt {
 
 	try {
 	    _writer.addMutation(m);
+	    _buffered++;
+
+	    if(_confirmFields != null) {
+		_unconfirmed.add(tuple.select(_confirmFields));
+	    }
+	    return true;
 	} catch(Exception e) {
+	    _mutationsRejected.incr();
 	    e.printStackTrace();
+	    return false;
 	}
-
-	_collector.ack(tuple);
     }
 
-    public void cleanup() {
+    /**
+     * Flushes, or on shutdown closes, the BatchWriter and accounts every mutation added since
+     * the last flush as written or, if the writer rejected any of them, as rejected. Held
+     * input tuples are acked or failed to match.
+     */
+    private void flush(boolean close) {
+	long start = System.currentTimeMillis();
+
 	try {
-	    _writer.close();
-	} catch(Exception e) {
+	    if(close) {
+		_writer.close();
+	    } else {
+		_writer.flush();
+	    }
+	    _mutationsWritten.add(_buffered);
+
+	    if(!close) {
+		for(List<Object> record : _unconfirmed) {
+		    _collector.emit(WRITTEN_STREAM, new Values(record.toArray()));
+		}
+		for(Tuple tuple : _held) {
+		    _collector.ack(tuple);
+		}
+	    }
+	} catch(MutationsRejectedException e) {
+	    _mutationsRejected.add(_buffered);
 	    e.printStackTrace();
+
+	    for(Tuple tuple : _held) {
+		_collector.fail(tuple);
+	    }
+	    if(!close) {
+		createWriter();
+	    }
 	}
+	_buffered = 0;
+	_unconfirmed.clear();
+	_held.clear();
+	_lastFlush = System.currentTimeMillis();
+	_flushTime.record(_lastFlush - start);
+    }
+
+    public void cleanup() {
+	flush(true);
     }
 
     public void declareOutputFields(OutputFieldsDeclarer declarer) {
 	declarer.declare(new Fields());
+
+	if(_confirmFields != null) {
+	    declarer.declareStream(WRITTEN_STREAM, _confirmFields);
+	}
     }
 
-    public Map getComponentConfiguration() {
-	return null;
+    public Map<String, Object> getComponentConfiguration() {
+	// Tick tuples flush the writer while no tuples arrive
+	Map<String, Object> conf = new HashMap<String, Object>();
+	conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, 1);
+	return conf;
     }
 
 
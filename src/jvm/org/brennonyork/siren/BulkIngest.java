@@ -1,25 +1,48 @@
 package org.brennonyork.siren;
 
+import backtype.storm.Config;
+import backtype.storm.Constants;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.task.OutputCollector;
 import backtype.storm.topology.OutputFieldsDeclarer;
 import backtype.storm.topology.base.BaseRichBolt;
 import backtype.storm.tuple.Fields;
 import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
 
 import java.util.Map;
 import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.InputStreamReader;
 import java.io.IOException;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.log4j.Logger;
 
+import org.brennonyork.siren.metrics.ComponentMetrics;
+import org.brennonyork.siren.metrics.Gauge;
+import org.brennonyork.siren.metrics.LogLinearHistogram;
+import org.brennonyork.siren.metrics.StripedCounter;
+
 import org.apache.accumulo.core.client.mock.MockInstance;
 import org.apache.accumulo.core.security.ColumnVisibility;
 import org.apache.accumulo.core.data.Mutation;
@@ -28,6 +51,7 @@ import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
 import org.apache.accumulo.core.client.BatchWriter;
 import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.TableExistsException;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.client.ZooKeeperInstance;
 import org.apache.accumulo.core.client.admin.TableOperations;
@@ -40,8 +64,44 @@ import org.apache.accumulo.core.client.admin.TableOperations;
  * can be setup as a shuffle grouping from the BulkMutation Bolt to linearly disperse RFiles
  * across a cluster.</br></br>
  *
+ * Incoming RFiles are coalesced per table into an import batch. A batch is handed to a
+ * bounded pool of background threads once it reaches a maximum number of files, a maximum
+ * number of bytes, or a maximum age, such that the bolt never blocks on
+ * <code>importDirectory</code> and imports remain large and infrequent. Only a single
+ * import runs per table at any moment while different tables import concurrently. Each
+ * incoming tuple is acknowledged only after the import containing its RFile has succeeded
+ * and failed otherwise. Because tuples are held until their batch imports
+ * <code>bulk.import.max.age</code> must stay well below
+ * <code>topology.message.timeout.secs</code>; unless set it defaults to a third of the
+ * message timeout. In debug mode, where rejected RFiles are not retried, the tuples of a
+ * failed import are failed at once.</br></br>
+ *
+ * Before a batch is imported, on the same background thread, any RFiles smaller than
+ * <code>bulk.merge.min.size</code> are merged together into RFiles of roughly
+ * <code>bulk.merge.target.size</code> bytes. This keeps many small, frequently rolled
+ * RFiles from exploding the file count of each tablet.</br></br>
+ *
  * This process creates a directory structure under HDFS which looks as follows:</br>
- * <code>/<i>hdfsRoot</i>/<i>localRoot</i>/<i>componentId</i>/<i>tableName</i>/{success|failure}/</code></br></br>
+ * <code>/<i>hdfsRoot</i>/<i>componentId</i>/<i>taskIndex</i>/<i>tableName</i>/{success|failure|merge}/<i>batchId</i>/</code></br></br>
+ *
+ * The registry of tables is journaled to a <code>registry</code> file beneath the task
+ * root whenever a new table is seen. Since the task root is keyed by the task index, rather
+ * than the task id, a restarted or reassigned task finds its previous root. On startup every
+ * non-empty batch directory under <code>success</code> and <code>failure</code> is adopted
+ * and imported again. A recovered batch holds no tuples, so should its import fail it is
+ * retried with the backoff below, bounded only by <code>bulk.retry.max.attempts</code>
+ * rather than by the message timeout. Roots belonging to task indices beyond the current
+ * parallelism are adopted by the task whose index they map onto.</br></br>
+ *
+ * RFiles rejected by an import, or left behind by an import which failed outright, are
+ * retried with an exponential backoff while their tuples remain held. A retry is only
+ * scheduled while it starts within half of <code>topology.message.timeout.secs</code> of the
+ * arrival of the batch's first tuple, leaving the other half for the import itself, such
+ * that Storm never replays a tuple whose RFile may still be imported. Once an RFile has
+ * failed <code>bulk.retry.max.attempts</code> times, or its retry would start past that
+ * deadline, it is moved to <code>quarantine</code>, its tuple is failed (and so replayed by
+ * the spout), and it is reported on the <code>failure</code> stream. Should the rejected
+ * RFiles not even be gathered for a retry their tuples are failed as well.</br></br>
  *
  * <b>Configuration</b></br>
  * <table>
@@ -57,12 +117,44 @@ import org.apache.accumulo.core.client.admin.TableOperations;
  *       <td>The name of the Accumulo user when connecting to the database.</td></tr>
  *   <tr><td>accumulo.passwd</td>
  *       <td>The password for the given Accumulo user.</td></tr>
+ *   <tr><td>bulk.import.max.files</td>
+ *       <td>The maximum number of RFiles to coalesce into a single import for a table. This
+ *           defaults to 100.</td></tr>
+ *   <tr><td>bulk.import.max.bytes</td>
+ *       <td>The maximum number of bytes to coalesce into a single import for a table. This
+ *           defaults to 1073741824 (1 GB).</td></tr>
+ *   <tr><td>bulk.import.max.age</td>
+ *       <td>The maximum time (in seconds) an RFile will wait before its table is imported.
+ *           This defaults to a third of <code>topology.message.timeout.secs</code> (10
+ *           seconds under Storm's default timeout).</td></tr>
+ *   <tr><td>bulk.import.threads</td>
+ *       <td>The number of background threads importing tables concurrently. This defaults
+ *           to 4.</td></tr>
+ *   <tr><td>bulk.merge.min.size</td>
+ *       <td>RFiles smaller than this many bytes are merged together before import. Setting
+ *           this to 0 disables merging. This defaults to 67108864 (64 MB).</td></tr>
+ *   <tr><td>bulk.merge.target.size</td>
+ *       <td>The number of bytes of input to roll into each merged RFile. This defaults to
+ *           268435456 (256 MB).</td></tr>
+ *   <tr><td>bulk.retry.max.attempts</td>
+ *       <td>The number of imports an RFile may fail before it is quarantined. This defaults
+ *           to 5.</td></tr>
+ *   <tr><td>bulk.retry.backoff</td>
+ *       <td>The time (in seconds) to wait before the first retry of a failed import. Each
+ *           further retry doubles the wait, bounded by the retry deadline above. This
+ *           defaults to 2 seconds.</td></tr>
  * </table>
  * <b>OutputFieldsDeclaration</b></br>
  * <table>
  *   <tr><td>Null</td>
  *       <td>Because all entries are inserted into Accumulo through mutations there
- *           are no tuples left to output.</td></tr>
+ *           are no tuples left to output on the default stream.</td></tr>
+ *   <tr><td>failure: table-name</td>
+ *       <td>The table a quarantined RFile was destined for.</td></tr>
+ *   <tr><td>failure: abs-rfile-path</td>
+ *       <td>The absolute path of the quarantined RFile residing in HDFS.</td></tr>
+ *   <tr><td>failure: reason</td>
+ *       <td>Description of why the last import of the RFile failed.</td></tr>
  * </table>
  * 
  * <b>Author:</b> <a href="mailto:brennon.york@gmail.com">Brennon York</a>
@@ -70,29 +162,290 @@ import org.apache.accumulo.core.client.admin.TableOperations;
  */
 public class BulkIngest extends BaseRichBolt {
     static Logger log = Logger.getLogger(BulkIngest.class);
+
+    /** Stream on which quarantined RFiles are reported */
+    public static final String FAILURE_STREAM = "failure";
+    private static final String REGISTRY_FILE = "registry";
 	
     private OutputCollector _collector;
     private Connector _conn;
+    private Configuration _hadoopConf;
     private FileSystem _fs;
-    private TableOperations _tableOps;
     private boolean _debug = false;
 
     private String _localRoot;
-    private String _tableRoot;
-    private String _tableName;
-    private String _failureDir;
-    private Path _rfilePath;
-    private Path _rfileIngestPath;
-    private Path _successPath;
-    private Path _failurePath;
     private Map<String, String> _registry;
+    private Map<String, ImportBatch> _pending;
+    private LinkedList<ImportBatch> _ready;
+    private Set<String> _inFlight;
+    private ExecutorService _importPool;
+    private ConcurrentLinkedQueue<ImportBatch> _completed;
+    private int _filesPending = 0;
+
+    private StripedCounter _recordsIn;
+    private StripedCounter _filesImported;
+    private StripedCounter _filesRejected;
+    private LogLinearHistogram _importTime;
 
     private String _hdfsRoot = "/tmp/rfile";
     private String _zkInstName = "myinstance";
     private String _zkServers = "localhost";
     private String _AccumuloUser = "root";
     private String _AccumuloPasswd = "passwd";
-    private int _maxTimeInterval = 10; // 5 minutes (in seconds)
+    private int _maxBatchFiles = 100;
+    private long _maxBatchBytes = (1024L * 1024L * 1024L); // 1 GB
+    private int _maxBatchAge = 10; // seconds
+    private int _messageTimeout = 30; // seconds
+    private int _numImportThreads = 4;
+    private int _maxAttempts = 5;
+    private int _retryBackoff = 2; // seconds
+    private long _mergeMinSize = (1024L * 1024L * 64L); // 64 MB
+    private long _mergeTargetSize = (1024L * 1024L * 256L); // 256 MB
+
+    /**
+     * Set of RFiles for a single table which are imported together. Only the bolt
+     * thread touches the tuples while the import thread records the outcome.
+     */
+    private static class ImportBatch {
+	String tableName;
+	Path tableRoot;
+	Path importPath;
+	Path failurePath;
+	Path mergePath;
+	Path quarantinePath;
+	Map<String, Tuple> tuples = new HashMap<String, Tuple>();
+	int numFiles = 0;
+	long numBytes = 0;
+	long createTime = System.currentTimeMillis();
+	/** Time by which a retry must start for the held tuples to be acked in time, or 0 */
+	long retryDeadline = 0;
+	boolean failed = false;
+	String reason;
+	Set<String> failedFiles = new HashSet<String>();
+	Map<String, List<String>> mergedFrom = new HashMap<String, List<String>>();
+	int attempts = 0;
+	long retryTime = 0;
+	List<Path> quarantined = new ArrayList<Path>();
+    }
+
+    /**
+     * Runs a single import batch off of the bolt thread and hands the batch back
+     * through the completed queue.
+     */
+    private class ImportTask implements Runnable {
+	private ImportBatch _batch;
+
+	public ImportTask(ImportBatch batch) {
+	    _batch = batch;
+	}
+
+	/**
+	 * Rolls every RFile under the merge threshold into as few RFiles as possible
+	 * without exceeding the merge target size. Merged RFiles are written outside of
+	 * the import directory and only moved in once complete.
+	 */
+	private void mergeSmallFiles() throws IOException {
+	    if(_mergeMinSize <= 0) {
+		return;
+	    }
+
+	    List<List<Path>> groups = new ArrayList<List<Path>>();
+	    List<Path> group = new ArrayList<Path>();
+	    long groupBytes = 0;
+
+	    for(FileStatus status : _fs.listStatus(_batch.importPath)) {
+		if(status.getLen() >= _mergeMinSize) {
+		    continue;
+		}
+		group.add(status.getPath());
+		groupBytes += status.getLen();
+
+		if(groupBytes >= _mergeTargetSize) {
+		    groups.add(group);
+		    group = new ArrayList<Path>();
+		    groupBytes = 0;
+		}
+	    }
+	    groups.add(group);
+
+	    for(List<Path> inputs : groups) {
+		if(inputs.size() < 2) {
+		    continue;
+		}
+
+		String mergedName = UUID.randomUUID().toString().concat(".rf");
+		Path mergedPath = new Path(_batch.mergePath, mergedName);
+		long numEntries = RFileMerger.merge(_fs, _hadoopConf, inputs, mergedPath);
+
+		if(!_fs.rename(mergedPath, new Path(_batch.importPath, mergedName))) {
+		    throw new IOException("Could not move "+mergedPath+" into "+_batch.importPath);
+		}
+
+		List<String> sources = new ArrayList<String>();
+		for(Path input : inputs) {
+		    // A retried merged rfile carries the sources merged into it
+		    if(_batch.mergedFrom.containsKey(input.getName())) {
+			sources.addAll(_batch.mergedFrom.remove(input.getName()));
+		    } else {
+			sources.add(input.getName());
+		    }
+		    _fs.delete(input, false);
+		}
+		_batch.mergedFrom.put(mergedName, sources);
+		log.debug("Merged "+inputs.size()+" rfiles ("+numEntries+" entries) into "+mergedName);
+	    }
+	    _fs.delete(_batch.mergePath, true);
+	}
+
+	/**
+	 * Moves every file directly beneath one directory into another.
+	 *
+	 * @return the number of bytes moved
+	 */
+	private long moveAll(Path from, Path to) throws IOException {
+	    FileStatus[] files = _fs.listStatus(from);
+	    long numBytes = 0;
+
+	    if(files != null) {
+		for(FileStatus file : files) {
+		    _fs.rename(file.getPath(), new Path(to, file.getPath().getName()));
+		    numBytes += file.getLen();
+		}
+	    }
+	    return numBytes;
+	}
+
+	/**
+	 * Gathers every RFile of a failed import back into the import directory to be
+	 * retried after a backoff, or into the quarantine directory once the batch has
+	 * exhausted its attempts.
+	 */
+	private void handleRejected() throws IOException {
+	    Path rejectedPath = _batch.failurePath;
+	    _batch.attempts += 1;
+	    long retryTime = System.currentTimeMillis() + ((_retryBackoff * 1000L) << Math.min(_batch.attempts - 1, 20));
+
+	    if(_batch.attempts >= _maxAttempts ||
+	       (_batch.retryDeadline > 0 && retryTime > _batch.retryDeadline)) {
+		if(_batch.attempts < _maxAttempts) {
+		    _batch.reason = _batch.reason+" (no retry within the message timeout)";
+		}
+		_fs.mkdirs(_batch.quarantinePath);
+		moveAll(_batch.importPath, _batch.quarantinePath);
+		moveAll(rejectedPath, _batch.quarantinePath);
+
+		for(FileStatus file : _fs.listStatus(_batch.quarantinePath)) {
+		    _batch.quarantined.add(file.getPath());
+		}
+	    } else {
+		_fs.mkdirs(_batch.importPath);
+		moveAll(rejectedPath, _batch.importPath);
+
+		FileStatus[] files = _fs.listStatus(_batch.importPath);
+		_batch.numFiles = files.length;
+		_batch.numBytes = 0;
+		for(FileStatus file : files) {
+		    _batch.numBytes += file.getLen();
+		}
+		// Accumulo mandates an empty failure directory for each import
+		_batch.failurePath = new Path(_batch.tableRoot,
+					      "failure".concat(Path.SEPARATOR).concat(UUID.randomUUID().toString()));
+		_batch.retryTime = retryTime;
+	    }
+	    _fs.delete(rejectedPath, true);
+	}
+
+	public void run() {
+	    long start = System.currentTimeMillis();
+	    _batch.failed = false;
+	    _batch.reason = null;
+	    _batch.failedFiles.clear();
+	    _batch.retryTime = 0;
+
+	    try {
+		importBatch();
+	    } finally {
+		// The table stays locked within _inFlight until the batch is handed back
+		_importTime.record(System.currentTimeMillis() - start);
+		_completed.add(_batch);
+	    }
+	}
+
+	private void importBatch() {
+	    try {
+		mergeSmallFiles();
+
+		if(!_conn.tableOperations().exists(_batch.tableName)) {
+		    try {
+			_conn.tableOperations().create(_batch.tableName);
+		    } catch(TableExistsException e) {
+			// Another task created the table first
+		    }
+		}
+
+		if(_debug) {
+		    _conn.tableOperations().importDirectory(_batch.tableName,
+							    _batch.importPath.toString(),
+							    "",
+							    false);
+		} else {
+		    _fs.mkdirs(_batch.failurePath);
+		    _conn.tableOperations().importDirectory(_batch.tableName,
+							    _batch.importPath.toString(),
+							    _batch.failurePath.toString(),
+							    false);
+
+		    FileStatus[] failures = _fs.listStatus(_batch.failurePath);
+		    if(failures != null) {
+			for(FileStatus status : failures) {
+			    String name = status.getPath().getName();
+
+			    // A rejected merged rfile fails every rfile merged into it
+			    if(_batch.mergedFrom.containsKey(name)) {
+				_batch.failedFiles.addAll(_batch.mergedFrom.get(name));
+			    } else {
+				_batch.failedFiles.add(name);
+			    }
+			}
+			_batch.reason = "Rejected by importDirectory";
+		    }
+		    removeIfEmpty(_batch.failurePath);
+		}
+		removeIfEmpty(_batch.importPath);
+	    } catch(TableNotFoundException e) {
+		log.error("Table "+_batch.tableName+" not found for import of "+_batch.importPath, e);
+		_batch.failed = true;
+		_batch.reason = e.toString();
+	    } catch(IOException e) {
+		log.error("Could not import "+_batch.importPath+" into "+_batch.tableName, e);
+		_batch.failed = true;
+		_batch.reason = e.toString();
+	    } catch(AccumuloException e) {
+		log.error("Could not import "+_batch.importPath+" into "+_batch.tableName, e);
+		_batch.failed = true;
+		_batch.reason = e.toString();
+	    } catch(AccumuloSecurityException e) {
+		log.error("Could not import "+_batch.importPath+" into "+_batch.tableName, e);
+		_batch.failed = true;
+		_batch.reason = e.toString();
+	    } catch(RuntimeException e) {
+		log.error("Could not import "+_batch.importPath+" into "+_batch.tableName, e);
+		_batch.failed = true;
+		_batch.reason = e.toString();
+	    }
+
+	    if(!_debug && (_batch.failed || !_batch.failedFiles.isEmpty())) {
+		try {
+		    handleRejected();
+		} catch(IOException e) {
+		    // Neither retried nor quarantined, so the held tuples are failed
+		    log.error("Could not gather rejected rfiles of "+_batch.importPath, e);
+		    _batch.retryTime = 0;
+		    _batch.quarantined.clear();
+		}
+	    }
+	}
+    }
 
     /**
      * @param hdfsRoot The local root within HDFS for all Bulk Ingest processing and file
@@ -118,6 +471,22 @@ public class BulkIngest extends BaseRichBolt {
     public void prepare(Map conf, TopologyContext context, OutputCollector collector) {
 	_collector = collector;
 	_registry = new HashMap<String,String>();
+	_pending = new HashMap<String,ImportBatch>();
+	_ready = new LinkedList<ImportBatch>();
+	_inFlight = new HashSet<String>();
+	_completed = new ConcurrentLinkedQueue<ImportBatch>();
+
+	ComponentMetrics metrics = ComponentMetrics.register(conf, context);
+	_recordsIn = metrics.counter(ComponentMetrics.RECORDS_IN);
+	_filesImported = metrics.counter(ComponentMetrics.FILES_IMPORTED);
+	_filesRejected = metrics.counter(ComponentMetrics.FILES_REJECTED);
+	_importTime = metrics.histogram(ComponentMetrics.IMPORT_MILLIS);
+	metrics.gauge(ComponentMetrics.FILES_PENDING, new Gauge() {
+		public long read() {
+		    // Metrics are read on the bolt thread, as is every update of the count
+		    return _filesPending;
+		}
+	    });
 
 	// Handle any instantiated variables passed in through the 'conf' object
 	if(conf.containsKey("zookeeper.instance.name")) {
@@ -136,15 +505,60 @@ public class BulkIngest extends BaseRichBolt {
 	    _AccumuloPasswd = conf.get("accumulo.passwd").toString();
 	    log.debug("accumulo.passwd=found");
 	}
+	if(conf.containsKey("bulk.import.max.files")) {
+	    _maxBatchFiles = Integer.parseInt(conf.get("bulk.import.max.files").toString());
+	    log.debug("bulk.import.max.files="+_maxBatchFiles);
+	}
+	if(conf.containsKey("bulk.import.max.bytes")) {
+	    _maxBatchBytes = Long.parseLong(conf.get("bulk.import.max.bytes").toString());
+	    log.debug("bulk.import.max.bytes="+_maxBatchBytes);
+	}
+	if(conf.containsKey(Config.TOPOLOGY_MESSAGE_TIMEOUT_SECS)) {
+	    _messageTimeout = Integer.parseInt(conf.get(Config.TOPOLOGY_MESSAGE_TIMEOUT_SECS).toString());
+	}
+	// Held tuples must import well before Storm times them out and replays them
+	_maxBatchAge = Math.max(1, _messageTimeout / 3);
+	if(conf.containsKey("bulk.import.max.age")) {
+	    _maxBatchAge = Integer.parseInt(conf.get("bulk.import.max.age").toString());
+	    log.debug("bulk.import.max.age="+_maxBatchAge);
+
+	    if(_maxBatchAge >= _messageTimeout) {
+		log.warn("bulk.import.max.age of "+_maxBatchAge+"s is not below the message timeout of "+
+			 _messageTimeout+"s; held tuples will be replayed before they import");
+	    }
+	}
+	if(conf.containsKey("bulk.import.threads")) {
+	    _numImportThreads = Integer.parseInt(conf.get("bulk.import.threads").toString());
+	    log.debug("bulk.import.threads="+_numImportThreads);
+	}
+	if(conf.containsKey("bulk.merge.min.size")) {
+	    _mergeMinSize = Long.parseLong(conf.get("bulk.merge.min.size").toString());
+	    log.debug("bulk.merge.min.size="+_mergeMinSize);
+	}
+	if(conf.containsKey("bulk.merge.target.size")) {
+	    _mergeTargetSize = Long.parseLong(conf.get("bulk.merge.target.size").toString());
+	    log.debug("bulk.merge.target.size="+_mergeTargetSize);
+	}
+	if(conf.containsKey("bulk.retry.max.attempts")) {
+	    _maxAttempts = Integer.parseInt(conf.get("bulk.retry.max.attempts").toString());
+	    log.debug("bulk.retry.max.attempts="+_maxAttempts);
+	}
+	if(conf.containsKey("bulk.retry.backoff")) {
+	    _retryBackoff = Integer.parseInt(conf.get("bulk.retry.backoff").toString());
+	    log.debug("bulk.retry.backoff="+_retryBackoff);
+	}
 		
 	try {
-	    _fs = FileSystem.get(new Configuration());
+	    _hadoopConf = new Configuration();
+	    _fs = FileSystem.get(_hadoopConf);
 	} catch(IOException e) {
 	    e.printStackTrace();
 	}
 
-	// Should ensure a unique 'root' within HDFS for the given process
-	_localRoot = _hdfsRoot.concat(Path.SEPARATOR).concat(Integer.toString(context.getThisTaskId()));
+	// Should ensure a unique 'root' within HDFS for the given process which remains
+	// stable across restarts and reassignment of the task
+	String componentRoot = _hdfsRoot.concat(Path.SEPARATOR).concat(context.getThisComponentId());
+	_localRoot = componentRoot.concat(Path.SEPARATOR).concat(Integer.toString(context.getThisTaskIndex()));
 	
 	if(_debug) {
 	    try {
@@ -160,114 +574,356 @@ public class BulkIngest extends BaseRichBolt {
 	    }
 	}
 
-	_tableOps = _conn.tableOperations();
+	_importPool = Executors.newFixedThreadPool(_numImportThreads);
+
+	recover(componentRoot,
+		context.getThisTaskIndex(),
+		context.getComponentTasks(context.getThisComponentId()).size());
+	scheduleImports(false);
     }
 
-    public void execute(Tuple tuple) {
-	_tableName = tuple.getStringByField("table-name");
-	_rfilePath = new Path(tuple.getStringByField("abs-rfile-path"));
-
-	// If we already have a file from this table name then move it into
-	// that respective directory and add it to the list
-	// 1. _registry.get(tableName) should return the directory where all rfiles
-	// reside for the given table
-	// 2. Because this is distributed _registry.get() should be a unique folder
-	// structure to each bolt
-	if(!_registry.containsKey(_tableName)) {
-	    _registry.put(_tableName, _localRoot.concat(Path.SEPARATOR).concat(_tableName));
-	}
-	// Otherwise if we haven't seen this table before then create it in the
-	// local registry, move the respective rfile into the correct directory
-	// structure in HDFS, and finally add it to the registry list
-	
-	// Set any incoming rfiles into the specified directory
-	
-	_tableRoot = _registry.get(_tableName).toString();
-	_rfileIngestPath = new Path(_tableRoot
-				    .concat(Path.SEPARATOR)
-				    .concat("success")
-				    .concat(Path.SEPARATOR)
-				    .concat(_rfilePath.getName()));
-	_successPath = new Path(_tableRoot
-				.concat(Path.SEPARATOR)
-				.concat("success"));
-	
+    /**
+     * Writes the registry of tables to HDFS. The registry is first written to a temporary
+     * file and then moved over the previous journal.
+     */
+    private void saveRegistry() {
+	Path registryPath = new Path(_localRoot, REGISTRY_FILE);
+	Path tmpPath = new Path(_localRoot, REGISTRY_FILE.concat(".tmp"));
+
 	try {
-	    if(!_fs.exists(_successPath)) {
-		try {
-                    _fs.mkdirs(_successPath);
-		} catch(IOException e) {
-		    e.printStackTrace();
+	    FSDataOutputStream out = _fs.create(tmpPath, true);
+	    try {
+		for(Map.Entry<String, String> entry : _registry.entrySet()) {
+		    out.write(entry.getKey().concat("\t").concat(entry.getValue()).concat("\n").getBytes("UTF-8"));
 		}
+	    } finally {
+		out.close();
 	    }
-	
-	    _fs.rename(_rfilePath, _rfileIngestPath);
-	} catch (IOException e) {
-	    e.printStackTrace();
+	    _fs.delete(registryPath, false);
+	    _fs.rename(tmpPath, registryPath);
+	} catch(IOException e) {
+	    log.error("Could not persist the registry to "+registryPath, e);
+	}
+    }
+
+    /**
+     * Reads the registry of tables journaled beneath the given task root, falling back
+     * to the temporary journal if a previous write was interrupted.
+     */
+    private Map<String, String> loadRegistry(Path root) throws IOException {
+	Map<String, String> registry = new HashMap<String, String>();
+	Path registryPath = new Path(root, REGISTRY_FILE);
+
+	if(!_fs.exists(registryPath)) {
+	    registryPath = new Path(root, REGISTRY_FILE.concat(".tmp"));
+	    if(!_fs.exists(registryPath)) {
+		return registry;
+	    }
+	}
+
+	BufferedReader in = new BufferedReader(new InputStreamReader(_fs.open(registryPath), "UTF-8"));
+	try {
+	    String line;
+	    while((line = in.readLine()) != null) {
+		int tab = line.indexOf('\t');
+		if(tab > 0) {
+		    registry.put(line.substring(0, tab), line.substring(tab + 1));
+		}
+	    }
+	} finally {
+	    in.close();
 	}
 
-	// If we're past our time limit then bulk ingest all data local to our
-	// registry instance
-	if(((int)(System.currentTimeMillis() / 1000 /* Convert to seconds */) % _maxTimeInterval) == 0) {	    
-	    for (Map.Entry<String, String> entry : _registry.entrySet()) {
-		_tableName = entry.getKey();
-		_tableRoot = entry.getValue();
+	return registry;
+    }
 
-		if(!_conn.tableOperations().exists(_tableName)) {
+    /**
+     * Adopts every RFile left behind by a previous incarnation of this task, or by a task
+     * index which no longer exists, and queues it for import.
+     */
+    private void recover(String componentRoot, int taskIndex, int numTasks) {
+	List<Path> roots = new ArrayList<Path>();
+	roots.add(new Path(_localRoot));
+
+	try {
+	    FileStatus[] children = _fs.listStatus(new Path(componentRoot));
+	    if(children != null) {
+		for(FileStatus child : children) {
 		    try {
-			_conn.tableOperations().create(_tableName);
-		    } catch(Exception e) {
-			e.printStackTrace();
+			int index = Integer.parseInt(child.getPath().getName());
+			if(index >= numTasks && (index % numTasks) == taskIndex) {
+			    roots.add(child.getPath());
+			}
+		    } catch(NumberFormatException e) {
+			// Not a task root
 		    }
 		}
+	    }
 
-		if(_debug) {
-		    _failureDir = "";
-		    _failurePath = new Path(_failureDir);
-		} else {
-		    _failureDir = _tableRoot
-			.concat(Path.SEPARATOR)
-			.concat("failure");
-		    _failurePath = new Path(_failureDir);
+	    for(Path root : roots) {
+		for(Map.Entry<String, String> entry : loadRegistry(root).entrySet()) {
+		    Path tableRoot = new Path(entry.getValue());
+
+		    recoverBatches(entry.getKey(), new Path(tableRoot, "success"));
+		    recoverBatches(entry.getKey(), new Path(tableRoot, "failure"));
+		    // Partially merged rfiles are discarded; their inputs are still in place
+		    _fs.delete(new Path(tableRoot, "merge"), true);
+		}
+		if(!root.toString().equals(new Path(_localRoot).toString())) {
+		    _fs.delete(root, true);
 		}
+	    }
+	} catch(IOException e) {
+	    log.error("Could not recover rfiles beneath "+componentRoot, e);
+	}
+    }
 
-		try {
-		    if(!_fs.exists(_failurePath)) {
-			try {
-			    _fs.mkdirs(_failurePath);
-			} catch(IOException e) {
-			    e.printStackTrace();
-			}
+    /**
+     * Moves every RFile from each batch directory beneath the given directory into a fresh
+     * batch ready for import.
+     */
+    private void recoverBatches(String tableName, Path dir) throws IOException {
+	FileStatus[] batchDirs = _fs.listStatus(dir);
+	if(batchDirs == null) {
+	    return;
+	}
+
+	for(FileStatus batchDir : batchDirs) {
+	    FileStatus[] files = _fs.listStatus(batchDir.getPath());
+
+	    if(files != null && files.length > 0) {
+		ImportBatch batch = newBatch(tableName);
+
+		for(FileStatus file : files) {
+		    _fs.rename(file.getPath(), new Path(batch.importPath, file.getPath().getName()));
+		    batch.numFiles += 1;
+		    batch.numBytes += file.getLen();
+		}
+		log.info("Recovered "+batch.numFiles+" rfiles for "+tableName+" from "+batchDir.getPath());
+		_ready.add(batch);
+	    }
+	    _fs.delete(batchDir.getPath(), true);
+	}
+    }
+
+    private void removeIfEmpty(Path dir) throws IOException {
+	FileStatus[] contents = _fs.listStatus(dir);
+	if(contents != null && contents.length == 0) {
+	    _fs.delete(dir, true);
+	}
+    }
+
+    private static boolean isTickTuple(Tuple tuple) {
+	return tuple.getSourceComponent().equals(Constants.SYSTEM_COMPONENT_ID)
+	    && tuple.getSourceStreamId().equals(Constants.SYSTEM_TICK_STREAM_ID);
+    }
+
+    /**
+     * Returns the batch currently collecting RFiles for the given table, creating both
+     * the table registry entry and a fresh batch directory when necessary.
+     */
+    private ImportBatch getBatch(String tableName) throws IOException {
+	ImportBatch batch = _pending.get(tableName);
+
+	if(batch == null) {
+	    batch = newBatch(tableName);
+	    _pending.put(tableName, batch);
+	}
+
+	return batch;
+    }
+
+    /**
+     * Creates an empty batch, and its directory, for the given table registering the table
+     * if it has not been seen before.
+     */
+    private ImportBatch newBatch(String tableName) throws IOException {
+	// _registry.get(tableName) returns the directory where all rfiles reside for
+	// the given table; because this is distributed it is unique to each bolt
+	if(!_registry.containsKey(tableName)) {
+	    _registry.put(tableName, _localRoot.concat(Path.SEPARATOR).concat(tableName));
+	    saveRegistry();
+	}
+	String tableRoot = _registry.get(tableName);
+	String batchId = UUID.randomUUID().toString();
+
+	ImportBatch batch = new ImportBatch();
+	batch.tableName = tableName;
+	batch.tableRoot = new Path(tableRoot);
+	batch.importPath = new Path(tableRoot
+				    .concat(Path.SEPARATOR)
+				    .concat("success")
+				    .concat(Path.SEPARATOR)
+				    .concat(batchId));
+	batch.failurePath = new Path(tableRoot
+				     .concat(Path.SEPARATOR)
+				     .concat("failure")
+				     .concat(Path.SEPARATOR)
+				     .concat(batchId));
+	batch.mergePath = new Path(tableRoot
+				   .concat(Path.SEPARATOR)
+				   .concat("merge")
+				   .concat(Path.SEPARATOR)
+				   .concat(batchId));
+	batch.quarantinePath = new Path(tableRoot
+					.concat(Path.SEPARATOR)
+					.concat("quarantine")
+					.concat(Path.SEPARATOR)
+					.concat(batchId));
+	_fs.mkdirs(batch.importPath);
+
+	return batch;
+    }
+
+    /**
+     * Seals every pending batch which has reached its file, byte, or age limit and hands
+     * sealed batches to the import pool, provided their table does not already have an
+     * import running.
+     *
+     * @param force seal every non-empty batch regardless of its limits
+     */
+    private void scheduleImports(boolean force) {
+	long now = System.currentTimeMillis();
+	Iterator<Map.Entry<String, ImportBatch>> it = _pending.entrySet().iterator();
+
+	while(it.hasNext()) {
+	    ImportBatch batch = it.next().getValue();
+
+	    if(batch.numFiles > 0 &&
+	       (force ||
+		batch.numFiles >= _maxBatchFiles ||
+		batch.numBytes >= _maxBatchBytes ||
+		(now - batch.createTime) >= (_maxBatchAge * 1000L))) {
+		it.remove();
+		_ready.add(batch);
+	    }
+	}
+
+	Iterator<ImportBatch> ready = _ready.iterator();
+
+	while(ready.hasNext()) {
+	    ImportBatch batch = ready.next();
+
+	    if(!_inFlight.contains(batch.tableName) && batch.retryTime <= now) {
+		log.debug("Importing "+batch.numFiles+" rfiles into "+batch.tableName);
+		ready.remove();
+		_inFlight.add(batch.tableName);
+		_importPool.execute(new ImportTask(batch));
+	    }
+	}
+    }
+
+    /**
+     * Acknowledges every tuple belonging to a batch whose RFile has been imported. Tuples
+     * whose RFile failed are held for the retry of the batch, or failed once the batch
+     * has been quarantined. This must run on the bolt thread since the OutputCollector is
+     * not thread safe.
+     */
+    private void drainCompleted() {
+	ImportBatch batch;
+
+	while((batch = _completed.poll()) != null) {
+	    _inFlight.remove(batch.tableName);
+	    boolean quarantined = !batch.quarantined.isEmpty();
+	    // A batch neither quarantined nor scheduled for a retry holds its tuples no longer
+	    boolean abandoned = !quarantined && batch.retryTime == 0;
+	    Iterator<Map.Entry<String, Tuple>> it = batch.tuples.entrySet().iterator();
+
+	    while(it.hasNext()) {
+		Map.Entry<String, Tuple> entry = it.next();
+
+		if(batch.failed || batch.failedFiles.contains(entry.getKey())) {
+		    // Tuples of a batch which is not retried (e.g. in debug mode) are failed at once
+		    if(quarantined || abandoned) {
+			_collector.fail(entry.getValue());
+			it.remove();
+			_filesRejected.incr();
+			_filesPending -= 1;
 		    }
+		} else {
+		    _collector.ack(entry.getValue());
+		    it.remove();
+		    _filesImported.incr();
+		    _filesPending -= 1;
+		}
+	    }
 
-		    _conn.tableOperations().importDirectory(_tableName, 
-							    _tableRoot.concat(Path.SEPARATOR).concat("success"),
-							    _failureDir,
-							    true);
-		} catch (TableNotFoundException e) {
-		    e.printStackTrace();
-		} catch (IOException e) {
-		    e.printStackTrace();
-		} catch (AccumuloException e) {
-		    e.printStackTrace();
-		} catch (AccumuloSecurityException e) {
-		    e.printStackTrace();
+	    if(quarantined) {
+		for(Path path : batch.quarantined) {
+		    log.error("Quarantined "+path+" for "+batch.tableName+" after "+batch.attempts+
+			      " attempts: "+batch.reason);
+		    _collector.emit(FAILURE_STREAM, new Values(batch.tableName, path.toString(), batch.reason));
 		}
+	    } else if(batch.retryTime > 0) {
+		log.warn("Retrying "+batch.numFiles+" rfiles for "+batch.tableName+" (attempt "+
+			 (batch.attempts + 1)+"): "+batch.reason);
+		_ready.add(batch);
 	    }
 	}
+    }
 
-	_collector.ack(tuple);
+    public void execute(Tuple tuple) {
+	drainCompleted();
+
+	if(isTickTuple(tuple)) {
+	    scheduleImports(false);
+	    return;
+	}
+
+	_recordsIn.incr();
+	String tableName = tuple.getStringByField("table-name");
+	Path rfilePath = new Path(tuple.getStringByField("abs-rfile-path"));
+
+	// Move the incoming rfile into the batch currently collecting files for its table
+	try {
+	    long len = _fs.getFileStatus(rfilePath).getLen();
+	    ImportBatch batch = getBatch(tableName);
+
+	    if(_fs.rename(rfilePath, new Path(batch.importPath, rfilePath.getName()))) {
+		if(batch.retryDeadline == 0) {
+		    batch.retryDeadline = System.currentTimeMillis() + (_messageTimeout * 500L);
+		}
+		batch.tuples.put(rfilePath.getName(), tuple);
+		_filesPending += 1;
+		batch.numFiles += 1;
+		batch.numBytes += len;
+	    } else {
+		log.error("Could not move "+rfilePath+" into "+batch.importPath);
+		_collector.fail(tuple);
+	    }
+	} catch(FileNotFoundException e) {
+	    // A replayed tuple whose rfile has already been claimed by an earlier batch
+	    log.warn("RFile "+rfilePath+" no longer exists; skipping");
+	    _collector.ack(tuple);
+	} catch(IOException e) {
+	    e.printStackTrace();
+	    _collector.fail(tuple);
+	}
+
+	scheduleImports(false);
     }
 
     public void cleanup() {
-	// TODO: serialize the local registry to disk!!
+	scheduleImports(true);
+	_importPool.shutdown();
+	try {
+	    _importPool.awaitTermination(_maxBatchAge, TimeUnit.SECONDS);
+	} catch(InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	// Any batch left unimported is recovered from its directory on the next start
+	saveRegistry();
     }
 
     public void declareOutputFields(OutputFieldsDeclarer declarer) {
 	declarer.declare(new Fields());
+	declarer.declareStream(FAILURE_STREAM, new Fields("table-name", "abs-rfile-path", "reason"));
     }
 
     public Map getComponentConfiguration() {
-	return null;
+	// Tick tuples drive the age trigger and drain finished imports when idle
+	Map conf = new HashMap();
+	conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, 1);
+	return conf;
     }
 }
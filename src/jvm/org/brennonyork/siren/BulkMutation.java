@@ -28,11 +28,17 @@ import org.apache.accumulo.core.conf.AccumuloConfiguration;
 import org.apache.accumulo.core.file.FileOperations;
 import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.PartialKey;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.file.FileSKVWriter;
 
 import org.apache.log4j.Logger;
 
+import org.brennonyork.siren.metrics.ComponentMetrics;
+import org.brennonyork.siren.metrics.Gauge;
+import org.brennonyork.siren.metrics.LogLinearHistogram;
+import org.brennonyork.siren.metrics.StripedCounter;
+
 /**
  * Generates RFiles for bulk ingest into an Accumulo cluster.
  *
@@ -46,6 +52,13 @@ import org.apache.log4j.Logger;
  * the equivalent decentralized method call for a file system to write said RFiles
  * to.</br></br>
  *
+ * Records sharing the same row, column family, column qualifier, and column visibility
+ * within a single buffer are collapsed into one cell through a ValueCombiner before the
+ * RFile is written. The resulting cell carries the newest timestamp of all records that
+ * were combined into it. If no ValueCombiner is provided the newest value wins.</br></br>
+ *
+ * A tuple carrying a RecordBlock adds every record of the block to the buffer at once.</br></br>
+ *
  * <b>Configuration</b></br>
  * <table>
  *   <tr><td>bulk.output.path</td>
@@ -92,6 +105,10 @@ public class BulkMutation extends BaseRichBolt {
     private long _ts;
     private Value _val;
     private TreeMap<Key, Value> _recordSet = null;
+    private ValueCombiner _combiner;
+    private StripedCounter _recordsIn;
+    private StripedCounter _recordsOut;
+    private LogLinearHistogram _flushTime;
 
     private String _TableName = "DefaultTable";
     private String _OutputPath = "/tmp/rf";
@@ -110,12 +127,36 @@ public class BulkMutation extends BaseRichBolt {
      *               the tuples into.
      */
     public BulkMutation(KVSchema schema) {
+	this(schema, new ValueCombiners.LastWriteWins());
+    }
+
+    /**
+     * Constructor which takes a KVSchema object along with the ValueCombiner to apply
+     * whenever multiple records map onto the same Key.
+     *
+     * @param schema A KVSchema object which represents the Accumulo schema to serialize
+     *               the tuples into.
+     * @param combiner ValueCombiner which collapses values sharing the same Key into a
+     *                 single cell
+     */
+    public BulkMutation(KVSchema schema, ValueCombiner combiner) {
 	_s = schema.serialize();
+	_combiner = combiner;
     }
 
     public void prepare(Map conf, TopologyContext context, OutputCollector collector) {
 	_collector = collector;
 
+	ComponentMetrics metrics = ComponentMetrics.register(conf, context);
+	_recordsIn = metrics.counter(ComponentMetrics.RECORDS_IN);
+	_recordsOut = metrics.counter(ComponentMetrics.RECORDS_OUT);
+	_flushTime = metrics.histogram(ComponentMetrics.FLUSH_MILLIS);
+	metrics.gauge(ComponentMetrics.BUFFERED_RECORDS, new Gauge() {
+		public long read() {
+		    return _recordSet.size();
+		}
+	    });
+
 	// Handle any instantiated variables passed in through the 'conf' object
 	if(conf.containsKey("bulk.output.path")) {
 	    _OutputPath = conf.get("bulk.output.path").toString();
@@ -246,13 +287,52 @@ public class BulkMutation extends BaseRichBolt {
 		    valSB.append(t.getStringByField(item));
 		}
 	    }
-	    _val = new Value(cqSB.toString().getBytes());
+	    _val = new Value(valSB.toString().getBytes());
 	} else {
 	    _val = new Value("".getBytes());
 	}
     }
 
+    private void addKVPair() {
+	addKVPair(_recordSet, _combiner, new Key(_row, _cf, _cq, _cv, _ts), _val);
+    }
+
+    /**
+     * Places a Key Value pair into a record set. If a cell with the same row, column
+     * family, column qualifier, and column visibility already exists then both values are
+     * combined and the existing Key takes on the newest timestamp. Since timestamps sort in
+     * descending order the lookup Key, built with the largest possible timestamp, always
+     * sorts at or before any matching Key within the record set.
+     *
+     * @param recordSet The sorted record set to add to
+     * @param combiner The ValueCombiner collapsing values sharing the same cell
+     * @param key The Key of the incoming record, which is kept by the record set if new
+     * @param value The Value of the incoming record
+     */
+    public static void addKVPair(TreeMap<Key, Value> recordSet, ValueCombiner combiner, Key key, Value value) {
+	long incomingTs = key.getTimestamp();
+	key.setTimestamp(Long.MAX_VALUE);
+	Entry<Key, Value> existing = recordSet.ceilingEntry(key);
+
+	if(existing != null && existing.getKey().equals(key, PartialKey.ROW_COLFAM_COLQUAL_COLVIS)) {
+	    Key k = existing.getKey();
+	    long ts = k.getTimestamp();
+
+	    recordSet.put(k, combiner.combine(existing.getValue(), ts, value, incomingTs));
+	    // Only the timestamp changes, which cannot reorder unique row/column entries
+	    k.setTimestamp(Math.max(ts, incomingTs));
+	} else {
+	    key.setTimestamp(incomingTs);
+	    recordSet.put(key, value);
+	}
+    }
+
+    /**
+     * Writes the record set out to the current RFile, closes it and clears the set.
+     */
     private void transform() {
+	long start = System.currentTimeMillis();
+
 	for(Entry<Key, Value> kv : _recordSet.entrySet()) {
 	    try {
 		_writer.append(kv.getKey(), kv.getValue());
@@ -265,23 +345,17 @@ public class BulkMutation extends BaseRichBolt {
 	} catch(IOException e) {
 	    e.printStackTrace();
 	}
+	_recordsOut.add(_recordSet.size());
+	_flushTime.record(System.currentTimeMillis() - start);
 	_recordSet.clear();
     }
 
+    /**
+     * Writes the record set out as in transform() and then opens the next RFile.
+     */
     private void internalTransform() {
-	for(Entry<Key, Value> kv : _recordSet.entrySet()) {
-	    try {
-		_writer.append(kv.getKey(), kv.getValue());
-	    } catch(IOException e) {
-		e.printStackTrace();
-	    }
-	}
-	try {
-	    _writer.close();
-	} catch(IOException e) {
-	    e.printStackTrace();
-	}
-	_recordSet.clear();
+	transform();
+
 	try {
 	    _RFilePath = _OutputPath.concat(Path.SEPARATOR).concat(UUID.randomUUID().toString()).concat(".rf");
 	    _writer = FileOperations.getInstance().openWriter(_RFilePath, _fs, _conf, AccumuloConfiguration.getDefaultConfiguration());
@@ -292,11 +366,24 @@ public class BulkMutation extends BaseRichBolt {
     }
 
     public void execute(Tuple tuple) {
-	setKVPair(tuple);
-	_recordSet.put(new Key(_row, _cf, _cq, _cv), new Value(_val));
-	_currNumRecords += 1;
+	if(RecordBlock.isBlock(tuple)) {
+	    RecordBlock block = (RecordBlock)tuple.getValue(0);
+
+	    for(int i = 0; i < block.size(); ++i) {
+		setKVPair(block.tupleAt(i, tuple));
+		addKVPair();
+	    }
+	    _recordsIn.add(block.size());
+	    _currNumRecords += block.size();
+	} else {
+	    _recordsIn.incr();
+	    setKVPair(tuple);
+	    addKVPair();
+	    _currNumRecords += 1;
+	}
 
-	if(_currNumRecords == _maxNumRecords || 
+	// A block may carry the count past the maximum rather than onto it
+	if(_currNumRecords >= _maxNumRecords || 
 	   ((int)(System.currentTimeMillis() / 1000 /* Convert to seconds */) % _maxTimeInterval) == 0) {
 	    log.debug("Writing records");
 	    String prevRFilePath = _RFilePath;
@@ -0,0 +1,188 @@
+package org.brennonyork.siren;
+
+import backtype.storm.Config;
+import backtype.storm.Constants;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.topology.base.BaseRichBolt;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import org.brennonyork.siren.metrics.ComponentMetrics;
+import org.brennonyork.siren.metrics.StripedCounter;
+import org.brennonyork.siren.sketch.RotatingBloomFilter;
+import org.brennonyork.siren.sketch.Sketches;
+
+/**
+ * Drops records which have already passed through the stream, e.g. those emitted again when
+ * Parse replays a file after a failure, before they reach a BatchMutation or BulkMutation.
+ *
+ * Each record is fingerprinted by the hash of a configurable set of its fields and tested
+ * against RotatingBloomFilters held in memory, such that no external lookup is made per
+ * record. Only records whose write has been confirmed are dropped: the writer emits the
+ * fingerprint fields of every stored record back to this bolt (see
+ * BatchMutation.confirmWrites), and a confirmed record is remembered for between
+ * <code>window</code> and two times <code>window</code> seconds. That filter is sized for the
+ * number of distinct records expected within a window at the given false positive rate,
+ * which is then the fraction of unique records wrongly dropped. Memory is fixed regardless
+ * of the volume of traffic.</br></br>
+ *
+ * Records emitted but not yet confirmed are remembered for between one and two message
+ * timeouts. A copy of such a record is failed rather than dropped, so that its input is
+ * replayed once the first write has either been confirmed or been given up. A false
+ * positive of that filter fails a unique record in the same way. This only delays such
+ * records when the spout replays failed tuples and the writer fails the inputs of rejected
+ * writes (as PollDirectory and BatchMutation.confirmWrites do); behind a spout which does
+ * not replay, each of them is lost. Since the records of a file are anchored to the file's
+ * tuple, a single failed copy, even of a record repeated within the file itself, replays
+ * the whole file. Its confirmed records are then dropped and the rest written again.</br></br>
+ *
+ * Records and confirmations must reach the task holding their fingerprint, so both are fed
+ * through a fields grouping on the fingerprint fields. For example:</br></br>
+ *
+ * <code>builder.setBolt("dedup", new Deduplicate(rt.getFields(), new Fields("sip", "dip", "ts"), 1000000, 0.001, 600), 2)</br>
+ *        .fieldsGrouping("parse", new Fields("sip", "dip", "ts"))</br>
+ *        .fieldsGrouping("write", BatchMutation.WRITTEN_STREAM, new Fields("sip", "dip", "ts"));</br>
+ *       builder.setBolt("write", new BatchMutation(schema).confirmWrites(new Fields("sip", "dip", "ts")), 2)</br>
+ *        .shuffleGrouping("dedup");</code></br></br>
+ *
+ * Unique records are emitted unchanged and anchored to their input. Confirmed duplicates
+ * are acked and dropped. The filters are lost with the worker, so records replayed after a
+ * restart are not caught.
+ * </br></br>
+ *
+ * <b>OutputFieldsDeclaration</b></br>
+ * <table>
+ *   <tr><td><i>dynamic</i></td>
+ *       <td>The fields of the incoming stream, given on construction.</td></tr>
+ * </table>
+ *
+ * <b>Author:</b> <a href="mailto:brennon.york@gmail.com">Brennon York</a>
+ * @author Brennon York
+ */
+public class Deduplicate extends BaseRichBolt {
+    private static final long serialVersionUID = 1L;
+    static Logger log = Logger.getLogger(Deduplicate.class);
+
+    private OutputCollector _collector;
+    private Fields _outputFields;
+    private Fields _fingerprintFields;
+    private long _expectedRecords;
+    private double _fpp;
+    private long _windowMs;
+    private long _timeoutMs = 30000;
+
+    /** Fingerprints of records whose write has been confirmed */
+    private transient RotatingBloomFilter _seen;
+    private long _lastRotate;
+    /** Fingerprints of records emitted but not yet confirmed */
+    private transient RotatingBloomFilter _pending;
+    private long _lastPendingRotate;
+    private StringBuilder _fingerprint = new StringBuilder();
+
+    private StripedCounter _recordsIn;
+    private StripedCounter _recordsOut;
+    private StripedCounter _duplicates;
+
+    /**
+     * @param fields Fields of the incoming stream, which are emitted unchanged
+     * @param fingerprintFields Fields which together identify a record
+     * @param expectedRecords Number of distinct records expected within a window
+     * @param fpp Rate at which unique records are wrongly dropped as duplicates
+     * @param window Minimum time (in seconds) a record is remembered for
+     */
+    public Deduplicate(Fields fields, Fields fingerprintFields, long expectedRecords, double fpp, int window) {
+	_outputFields = fields;
+	_fingerprintFields = fingerprintFields;
+	_expectedRecords = expectedRecords;
+	_fpp = fpp;
+	_windowMs = window * 1000L;
+    }
+
+    public void prepare(@SuppressWarnings("rawtypes") Map conf, TopologyContext context, OutputCollector collector) {
+	_collector = collector;
+
+	if(conf.containsKey(Config.TOPOLOGY_MESSAGE_TIMEOUT_SECS)) {
+	    _timeoutMs = Integer.parseInt(conf.get(Config.TOPOLOGY_MESSAGE_TIMEOUT_SECS).toString()) * 1000L;
+	}
+	_seen = new RotatingBloomFilter(_expectedRecords, _fpp, 2);
+	_pending = new RotatingBloomFilter(Math.max(1, _expectedRecords * _timeoutMs / _windowMs), _fpp, 2);
+	_lastRotate = _lastPendingRotate = System.currentTimeMillis();
+	log.info("Deduplicating on "+_fingerprintFields+" within "+(_seen.sizeInBytes() + _pending.sizeInBytes())+" bytes");
+
+	ComponentMetrics metrics = ComponentMetrics.register(conf, context);
+	_recordsIn = metrics.counter(ComponentMetrics.RECORDS_IN);
+	_recordsOut = metrics.counter(ComponentMetrics.RECORDS_OUT);
+	_duplicates = metrics.counter(ComponentMetrics.DUPLICATES_DROPPED);
+    }
+
+    private static boolean isTickTuple(Tuple tuple) {
+	return tuple.getSourceComponent().equals(Constants.SYSTEM_COMPONENT_ID)
+	    && tuple.getSourceStreamId().equals(Constants.SYSTEM_TICK_STREAM_ID);
+    }
+
+    private long fingerprint(Tuple tuple) {
+	_fingerprint.setLength(0);
+
+	for(String field : _fingerprintFields) {
+	    // Separates fields such that ("ab", "c") and ("a", "bc") differ
+	    _fingerprint.append(tuple.getValueByField(field)).append('\u0000');
+	}
+	return Sketches.hash64(_fingerprint);
+    }
+
+    public void execute(Tuple tuple) {
+	long now = System.currentTimeMillis();
+
+	if(now - _lastRotate >= _windowMs) {
+	    _seen.rotate();
+	    _lastRotate = now;
+	}
+	if(now - _lastPendingRotate >= _timeoutMs) {
+	    _pending.rotate();
+	    _lastPendingRotate = now;
+	}
+	if(isTickTuple(tuple)) {
+	    return;
+	}
+	long fingerprint = fingerprint(tuple);
+
+	if(tuple.getSourceStreamId().equals(BatchMutation.WRITTEN_STREAM)) {
+	    _seen.putIfAbsent(fingerprint);
+	    _collector.ack(tuple);
+	    return;
+	}
+	_recordsIn.incr();
+
+	if(_seen.mightContain(fingerprint)) {
+	    _duplicates.incr();
+	    _collector.ack(tuple);
+	} else if(_pending.putIfAbsent(fingerprint)) {
+	    _collector.emit(tuple, tuple.getValues());
+	    _recordsOut.incr();
+	    _collector.ack(tuple);
+	} else {
+	    // The first copy may yet fail to be written; replay this one once that is known
+	    _collector.fail(tuple);
+	}
+    }
+
+    public void cleanup() { }
+
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+	declarer.declare(_outputFields);
+    }
+
+    public Map<String, Object> getComponentConfiguration() {
+	// Tick tuples rotate the filters while no tuples arrive
+	Map<String, Object> conf = new HashMap<String, Object>();
+	conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, 1);
+	return conf;
+    }
+}
@@ -0,0 +1,20 @@
+package org.brennonyork.siren;
+
+import backtype.storm.tuple.Tuple;
+
+import java.io.Serializable;
+
+/**
+ * Interface for developers to define predicates which drop Tuples from the stream.
+ * Used in tandem with the Function class and FunctorPipeline.
+ *
+ * @author Brennon York
+ */
+public interface FilterFunctor extends Serializable {
+    /**
+     * @param tuple the input Storm Tuple that is provided through the
+     *              Function class
+     * @return true to keep the tuple, false to drop it
+     */
+    public boolean accept(Tuple tuple);
+}
@@ -0,0 +1,23 @@
+package org.brennonyork.siren;
+
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Interface for developers to define functions which turn each Tuple into zero or more
+ * new Tuples. Used in tandem with the Function class and FunctorPipeline.
+ *
+ * @author Brennon York
+ */
+public interface FlatMapFunctor extends Serializable {
+    /**
+     * @param tuple the input Storm Tuple that is provided through the
+     *              Function class
+     * @return a List of new Values objects, each containing all declared fields,
+     *         which may be empty (or null) to emit nothing
+     */
+    public List<Values> eval(Tuple tuple);
+}
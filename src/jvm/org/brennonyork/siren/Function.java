@@ -1,5 +1,7 @@
 package org.brennonyork.siren;
 
+import backtype.storm.Config;
+import backtype.storm.Constants;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.task.OutputCollector;
 import backtype.storm.topology.OutputFieldsDeclarer;
@@ -9,8 +11,19 @@ import backtype.storm.tuple.Tuple;
 import backtype.storm.tuple.Values;
 
 import org.brennonyork.siren.Functor;
+import org.brennonyork.siren.metrics.ComponentMetrics;
+import org.brennonyork.siren.metrics.StripedCounter;
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.log4j.Logger;
 
@@ -26,6 +39,32 @@ import org.apache.log4j.Logger;
  * entire tuple one can generate reduction functions, aggregation, find-replace, and a host
  * of other possibilities over operating on a single field within a Tuple.</br></br>
  *
+ * A Function built over a BatchFunctor instead collects tuples until either the batch size
+ * is reached or the batch timeout (in seconds) passes, driven by tick tuples, and evaluates
+ * the whole batch at once. Each input tuple is still anchored to, and acknowledged after,
+ * its own output; should the BatchFunctor throw, every tuple of the batch is failed.</br></br>
+ *
+ * Calling <code>async</code> on a Function evaluates its Functor on a pool of threads (virtual
+ * threads when the JVM provides them and no thread count is given) such that a slow Functor,
+ * e.g. a lookup, no longer bounds the throughput of the task. At most
+ * <code>maxInFlight</code> tuples are evaluated at once, after which the executor waits on the
+ * oldest. Results are always emitted and acknowledged on the executor thread, optionally in
+ * the order their tuples arrived, and a tuple whose Functor throws is failed. The Functor must
+ * then be safe to call from several threads at once.</br></br>
+ *
+ * A Function may also be built over a FunctorPipeline, fusing a chain of map, filter and
+ * flat-map steps into this one bolt such that intermediate tuples never leave the executor.
+ * Every tuple emitted by the final step is anchored to the input tuple.</br></br>
+ *
+ * A Function built over a FilterFunctor passes on each tuple it accepts unchanged (its output
+ * Fields must then match those of its input) and one built over a FlatMapFunctor emits zero
+ * or more tuples per input. Dropped tuples are acknowledged without anything being
+ * emitted.</br></br>
+ *
+ * Every kind of Function also accepts tuples carrying a RecordBlock, evaluating each record
+ * of the block (a BatchFunctor takes the whole block as one batch) and anchoring every
+ * output to the block's tuple, which is acknowledged or failed as a whole.</br></br>
+ *
  * <b>OutputFieldsDeclaration</b></br>
  * <table>
  *   <tr><td><i>dynamic</i></td>
@@ -43,8 +82,51 @@ public class Function extends BaseRichBolt {
     private OutputCollector _collector;
     /** instance of the Functor object passed in on instantiation */
     private Functor _f;
+    /** instance of the FilterFunctor object passed in on instantiation */
+    private FilterFunctor _filter;
+    /** instance of the FlatMapFunctor object passed in on instantiation */
+    private FlatMapFunctor _flatMap;
+    /** chain of steps evaluated in place of a single Functor */
+    private FunctorPipeline _pipeline;
+    /** Values produced for the tuple being executed */
+    private List<Values> _out;
+    /** instance of the BatchFunctor object passed in on instantiation */
+    private BatchFunctor _batchF;
+    /** Number of tuples evaluated together by the BatchFunctor */
+    private int _batchSize;
+    /** Time (in seconds) a partial batch waits before being evaluated */
+    private int _batchTimeout;
+    /** Tuples collected for the next call to the BatchFunctor */
+    private List<Tuple> _batch;
+
+    /**
+     * Evaluation of a single tuple on the async pool. The pool thread hands it back through
+     * _done, whose hand-off makes its values visible; done is only set by the bolt thread
+     * once the result has been taken from that queue.
+     */
+    private static class AsyncResult {
+	Tuple tuple;
+	List<Values> values = new ArrayList<Values>();
+	Throwable error;
+	boolean done = false;
+    }
+
+    /** Number of async threads; 0 uses virtual threads where available, -1 disables async */
+    private int _asyncThreads = -1;
+    /** Maximum number of tuples evaluated at once */
+    private int _maxInFlight;
+    /** Whether results are emitted in the order their tuples arrived */
+    private boolean _ordered;
+    private transient ExecutorService _pool;
+    /** Tuples being evaluated, in arrival order */
+    private transient LinkedList<AsyncResult> _inFlight;
+    /** Results handed back from the pool to the executor thread */
+    private transient LinkedBlockingQueue<AsyncResult> _done;
     /** Fields declaration to pass through to the declareOutputFields method */
     private Fields _outputFields;
+    /** Counters of the tuples received and emitted */
+    private StripedCounter _recordsIn;
+    private StripedCounter _recordsOut;
 
     /**
      * Constructor defining the Functor to evaluate per Tuple and the corresponding output Fields.
@@ -58,22 +140,376 @@ public class Function extends BaseRichBolt {
 	_outputFields = outputFields;
     }
 
+    /**
+     * Constructor defining the FilterFunctor to evaluate per Tuple. Accepted tuples are
+     * emitted unchanged.
+     *
+     * @param filter FilterFunctor which declares the user-defined predicate to evaluate
+     * @param outputFields Fields object for Storm to pass through to the 
+     *                     declareOutputFields() method; these match the input Fields
+     */
+    public Function(FilterFunctor filter, Fields outputFields) {
+	_filter = filter;
+	_outputFields = outputFields;
+    }
+
+    /**
+     * Constructor defining the FlatMapFunctor to evaluate per Tuple and the corresponding
+     * output Fields.
+     *
+     * @param functor FlatMapFunctor which declares the user-defined function to evaluate
+     * @param outputFields Fields object for Storm to pass through to the 
+     *                     declareOutputFields() method
+     */
+    public Function(FlatMapFunctor functor, Fields outputFields) {
+	_flatMap = functor;
+	_outputFields = outputFields;
+    }
+
+    /**
+     * Constructor defining the FunctorPipeline to evaluate per Tuple, whose output Fields
+     * are those of its final map or flat-map step.
+     *
+     * @param pipeline FunctorPipeline which declares the chain of user-defined steps
+     */
+    public Function(FunctorPipeline pipeline) {
+	this(pipeline, pipeline.getOutputFields());
+    }
+
+    /**
+     * Constructor defining the FunctorPipeline to evaluate per Tuple and the corresponding
+     * output Fields, as needed by pipelines which only filter.
+     *
+     * @param pipeline FunctorPipeline which declares the chain of user-defined steps
+     * @param outputFields Fields object for Storm to pass through to the 
+     *                     declareOutputFields() method
+     */
+    public Function(FunctorPipeline pipeline, Fields outputFields) {
+	_pipeline = pipeline;
+	_outputFields = outputFields;
+    }
+
+    /**
+     * Constructor defining the BatchFunctor to evaluate per batch of Tuples and the
+     * corresponding output Fields.
+     *
+     * @param functor BatchFunctor which declares the user-defined function to evaluate
+     * @param outputFields Fields object for Storm to pass through to the 
+     *                     declareOutputFields() method
+     * @param batchSize Number of tuples to collect before evaluating them
+     * @param batchTimeout Time (in seconds) after which a partial batch is evaluated
+     */
+    public Function(BatchFunctor functor, Fields outputFields, int batchSize, int batchTimeout) {
+	_batchF = functor;
+	_outputFields = outputFields;
+	_batchSize = batchSize;
+	_batchTimeout = batchTimeout;
+    }
+
+    /**
+     * Evaluates the Functor asynchronously on a pool of threads.
+     *
+     * @param numThreads Number of threads within the pool, or 0 for a virtual thread per
+     *                   tuple where the JVM supports them (else maxInFlight threads)
+     * @param maxInFlight Maximum number of tuples evaluated at once
+     * @param ordered Whether results are emitted in the order their tuples arrived
+     * @return this Function
+     */
+    public Function async(int numThreads, int maxInFlight, boolean ordered) {
+	_asyncThreads = numThreads;
+	_maxInFlight = maxInFlight;
+	_ordered = ordered;
+	return this;
+    }
+
+    private ExecutorService createPool() {
+	ThreadFactory factory = new ThreadFactory() {
+		private int _count = 0;
+
+		public synchronized Thread newThread(Runnable r) {
+		    Thread t = new Thread(r, "function-async-"+(_count++));
+		    t.setDaemon(true);
+		    return t;
+		}
+	    };
+
+	if(_asyncThreads == 0) {
+	    try {
+		Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		return (ExecutorService)virtual.invoke(null);
+	    } catch(Exception e) {
+		log.info("Virtual threads unavailable; using "+_maxInFlight+" platform threads");
+	    }
+	    return Executors.newFixedThreadPool(_maxInFlight, factory);
+	}
+	return Executors.newFixedThreadPool(_asyncThreads, factory);
+    }
+
     public void prepare(Map conf, TopologyContext context, OutputCollector collector) {
 	_collector = collector;
+
+	if(_asyncThreads >= 0 && _batchF == null) {
+	    _pool = createPool();
+	    _inFlight = new LinkedList<AsyncResult>();
+	    _done = new LinkedBlockingQueue<AsyncResult>();
+	}
+
+	ComponentMetrics metrics = ComponentMetrics.register(conf, context);
+	_recordsIn = metrics.counter(ComponentMetrics.RECORDS_IN);
+	_recordsOut = metrics.counter(ComponentMetrics.RECORDS_OUT);
+	_batch = new ArrayList<Tuple>();
+	_out = new ArrayList<Values>();
+    }
+
+    private static boolean isTickTuple(Tuple tuple) {
+	return tuple.getSourceComponent().equals(Constants.SYSTEM_COMPONENT_ID)
+	    && tuple.getSourceStreamId().equals(Constants.SYSTEM_TICK_STREAM_ID);
+    }
+
+    /**
+     * Evaluates the collected batch, emitting and acknowledging each tuple in order.
+     */
+    private void evalBatch() {
+	List<Values> results;
+
+	try {
+	    results = _batchF.evalBatch(_batch);
+	} catch(RuntimeException e) {
+	    log.error("BatchFunctor failed over "+_batch.size()+" tuples", e);
+	    for(Tuple tuple : _batch) {
+		_collector.fail(tuple);
+	    }
+	    _batch.clear();
+	    return;
+	}
+
+	for(int i = 0; i < _batch.size(); ++i) {
+	    Tuple tuple = _batch.get(i);
+	    Values v = (results == null || i >= results.size()) ? null : results.get(i);
+
+	    if(v != null) {
+		_collector.emit(tuple, v);
+		_recordsOut.incr();
+	    }
+	    _collector.ack(tuple);
+	}
+	_batch.clear();
+    }
+
+    private static int numRecords(Tuple tuple) {
+	return RecordBlock.isBlock(tuple) ? ((RecordBlock)tuple.getValue(0)).size() : 1;
+    }
+
+    /**
+     * Evaluates the records of a RecordBlock as one batch, emitting every result anchored to
+     * the block's tuple and then acknowledging it.
+     */
+    private void evalBlock(Tuple tuple) {
+	RecordBlock block = (RecordBlock)tuple.getValue(0);
+	List<Tuple> records = new ArrayList<Tuple>(block.size());
+	List<Values> results;
+
+	for(int i = 0; i < block.size(); ++i) {
+	    records.add(block.tupleAt(i, tuple));
+	}
+	_recordsIn.add(records.size());
+
+	try {
+	    results = _batchF.evalBatch(records);
+	} catch(RuntimeException e) {
+	    log.error("BatchFunctor failed over a block of "+records.size()+" records", e);
+	    _collector.fail(tuple);
+	    return;
+	}
+	if(results != null) {
+	    for(Values v : results) {
+		if(v != null) {
+		    _collector.emit(tuple, v);
+		    _recordsOut.incr();
+		}
+	    }
+	}
+	_collector.ack(tuple);
+    }
+
+    /**
+     * Emits and acknowledges, or fails, the tuple of a finished evaluation.
+     */
+    private void complete(AsyncResult result) {
+	if(result.error != null) {
+	    log.error("Functor failed", result.error);
+	    _collector.fail(result.tuple);
+	    return;
+	}
+	for(Values v : result.values) {
+	    _collector.emit(result.tuple, v);
+	    _recordsOut.incr();
+	}
+	_collector.ack(result.tuple);
+    }
+
+    /**
+     * Completes every finished evaluation which may be emitted; in ordered mode only those
+     * with no unfinished evaluation ahead of them.
+     *
+     * @param block Whether to wait for at least one evaluation to finish
+     */
+    private void drainAsync(boolean block) {
+	AsyncResult result = null;
+
+	if(block) {
+	    try {
+		result = _done.take();
+	    } catch(InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	} else {
+	    result = _done.poll();
+	}
+
+	while(result != null) {
+	    result.done = true;
+	    if(!_ordered) {
+		_inFlight.remove(result);
+		complete(result);
+	    }
+	    result = _done.poll();
+	}
+
+	while(_ordered && !_inFlight.isEmpty() && _inFlight.getFirst().done) {
+	    complete(_inFlight.removeFirst());
+	}
+    }
+
+    /**
+     * Evaluates the Functor, FilterFunctor, FlatMapFunctor or FunctorPipeline over a tuple,
+     * or over each record of a RecordBlock.
+     *
+     * @param tuple The input tuple
+     * @param out The list to which every Values to emit is added
+     */
+    private void process(Tuple tuple, List<Values> out) {
+	if(RecordBlock.isBlock(tuple)) {
+	    RecordBlock block = (RecordBlock)tuple.getValue(0);
+
+	    for(int i = 0; i < block.size(); ++i) {
+		process(block.tupleAt(i, tuple), out);
+	    }
+	    return;
+	}
+	if(_filter != null) {
+	    if(_filter.accept(tuple)) {
+		out.add(new Values(tuple.getValues().toArray()));
+	    }
+	} else if(_flatMap != null) {
+	    List<Values> vs = _flatMap.eval(tuple);
+
+	    if(vs != null) {
+		out.addAll(vs);
+	    }
+	} else if(_pipeline != null) {
+	    _pipeline.eval(tuple, out);
+	} else {
+	    Values v = _f.eval(tuple);
+
+	    if(v != null) {
+		out.add(v);
+	    }
+	}
+    }
+
+    private void submit(Tuple tuple) {
+	final AsyncResult result = new AsyncResult();
+	result.tuple = tuple;
+	_inFlight.add(result);
+
+	_pool.execute(new Runnable() {
+		public void run() {
+		    try {
+			process(result.tuple, result.values);
+		    } catch(Throwable t) {
+			result.error = t;
+		    }
+		    _done.add(result);
+		}
+	    });
     }
 
     public void execute(Tuple tuple) {
-	_collector.emit(tuple, _f.eval(tuple));
+	if(_pool != null) {
+	    drainAsync(false);
+
+	    if(isTickTuple(tuple)) {
+		return;
+	    }
+	    _recordsIn.add(numRecords(tuple));
+
+	    while(_inFlight.size() >= _maxInFlight) {
+		drainAsync(true);
+	    }
+	    submit(tuple);
+	    return;
+	}
+
+	if(_batchF != null) {
+	    if(isTickTuple(tuple)) {
+		if(!_batch.isEmpty()) {
+		    evalBatch();
+		}
+		return;
+	    }
+	    if(RecordBlock.isBlock(tuple)) {
+		evalBlock(tuple);
+		return;
+	    }
+	    _recordsIn.incr();
+	    _batch.add(tuple);
+
+	    if(_batch.size() >= _batchSize) {
+		evalBatch();
+	    }
+	    return;
+	}
+
+	_recordsIn.add(numRecords(tuple));
+	_out.clear();
+
+	try {
+	    process(tuple, _out);
+	} catch(RuntimeException e) {
+	    log.error("Functor failed", e);
+	    _collector.fail(tuple);
+	    return;
+	}
+	for(Values v : _out) {
+	    _collector.emit(tuple, v);
+	    _recordsOut.incr();
+	}
 	_collector.ack(tuple);
     }
 
-    public void cleanup() { }
+    public void cleanup() {
+	if(_pool != null) {
+	    _pool.shutdownNow();
+	}
+    }
 
     public void declareOutputFields(OutputFieldsDeclarer declarer) {
 	declarer.declare(_outputFields);
     }
 
     public Map getComponentConfiguration() {
-	return null;
+	Map conf = new HashMap();
+
+	if(_batchF != null) {
+	    // Tick tuples evaluate partial batches once they time out
+	    conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, _batchTimeout);
+	} else if(_asyncThreads >= 0) {
+	    // Tick tuples emit finished evaluations while no tuples arrive
+	    conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, 1);
+	} else {
+	    return null;
+	}
+	return conf;
     }
 }
@@ -0,0 +1,127 @@
+package org.brennonyork.siren;
+
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ordered chain of Functors, FilterFunctors and FlatMapFunctors evaluated within a single
+ * Function bolt.
+ *
+ * Rather than chaining a Function bolt per step, and thereby serializing and transferring
+ * every intermediate tuple between executors, each step hands its output straight to the
+ * next step within the executor and only the output of the final step is emitted. Each
+ * map or flat-map step declares the Fields of its output, which the following steps read
+ * by name. For example:</br></br>
+ *
+ * <code>FunctorPipeline p = new FunctorPipeline()</br>
+ *       &nbsp;&nbsp;.filter(new IsTcp())</br>
+ *       &nbsp;&nbsp;.map(new Normalize(), new Fields("src", "dst", "bytes"))</br>
+ *       &nbsp;&nbsp;.flatMap(new SplitEndpoints(), new Fields("ip", "bytes"));</br>
+ *       builder.setBolt("normalize", new Function(p), 4);</code>
+ *
+ * @author Brennon York
+ */
+public class FunctorPipeline implements Serializable {
+    private List<Object> _steps = new ArrayList<Object>();
+    private List<Fields> _fields = new ArrayList<Fields>();
+    private Fields _outputFields;
+
+    /**
+     * Appends a step which turns each tuple into exactly one new tuple; a null result
+     * drops the tuple.
+     */
+    public FunctorPipeline map(Functor functor, Fields outputFields) {
+	_steps.add(functor);
+	_fields.add(outputFields);
+	_outputFields = outputFields;
+	return this;
+    }
+
+    /**
+     * Appends a step which drops every tuple it does not accept.
+     */
+    public FunctorPipeline filter(FilterFunctor filter) {
+	_steps.add(filter);
+	_fields.add(_outputFields);
+	return this;
+    }
+
+    /**
+     * Appends a step which turns each tuple into zero or more new tuples.
+     */
+    public FunctorPipeline flatMap(FlatMapFunctor functor, Fields outputFields) {
+	_steps.add(functor);
+	_fields.add(outputFields);
+	_outputFields = outputFields;
+	return this;
+    }
+
+    /**
+     * @return the Fields of the tuples emitted by the final step, or null should the
+     *         pipeline only filter
+     */
+    public Fields getOutputFields() {
+	return _outputFields;
+    }
+
+    /**
+     * Evaluates the pipeline over a tuple.
+     *
+     * @param tuple The Storm Tuple received by the Function
+     * @param out The list to which the Values of every resulting tuple are added
+     */
+    public void eval(Tuple tuple, List<Values> out) {
+	eval(0, tuple, tuple, out);
+    }
+
+    private void eval(int step, Tuple current, Tuple source, List<Values> out) {
+	if(step == _steps.size()) {
+	    out.add(toValues(current));
+	    return;
+	}
+	Object f = _steps.get(step);
+	boolean last = (step == _steps.size() - 1);
+
+	if(f instanceof FilterFunctor) {
+	    if(((FilterFunctor)f).accept(current)) {
+		eval(step + 1, current, source, out);
+	    }
+	} else if(f instanceof Functor) {
+	    Values v = ((Functor)f).eval(current);
+
+	    if(v != null) {
+		if(last) {
+		    out.add(v);
+		} else {
+		    eval(step + 1, new PipelineTuple(_fields.get(step), v, source), source, out);
+		}
+	    }
+	} else {
+	    List<Values> vs = ((FlatMapFunctor)f).eval(current);
+
+	    if(vs != null) {
+		for(Values v : vs) {
+		    if(last) {
+			out.add(v);
+		    } else {
+			eval(step + 1, new PipelineTuple(_fields.get(step), v, source), source, out);
+		    }
+		}
+	    }
+	}
+    }
+
+    private static Values toValues(Tuple tuple) {
+	if(tuple.getValues() instanceof Values) {
+	    return (Values)tuple.getValues();
+	}
+	Values v = new Values();
+	v.addAll(tuple.getValues());
+	return v;
+    }
+}
@@ -0,0 +1,137 @@
+package org.brennonyork.siren;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from object keys to primitive longs.
+ *
+ * Values are held within a long[] rather than as boxed Longs such that aggregating a value
+ * into an existing key allocates nothing. Keys are probed linearly and the table doubles
+ * once it is half full. Entries are visited by slot, e.g.:</br></br>
+ *
+ * <code>for(int i = 0; i < map.capacity(); ++i) {</br>
+ *       &nbsp;&nbsp;if(map.keyAt(i) != null) { ... map.valueAt(i) ... }</br>
+ *       }</code>
+ *
+ * @author Brennon York
+ */
+public class LongAggregateMap {
+    /** How an incoming value is folded into the value already held for its key */
+    public static enum Op {
+	COUNT, SUM, MIN, MAX;
+
+	long combine(long current, long incoming) {
+	    switch(this) {
+	    case COUNT:
+	    case SUM:
+		return current + incoming;
+	    case MIN:
+		return Math.min(current, incoming);
+	    default:
+		return Math.max(current, incoming);
+	    }
+	}
+    }
+
+    private Object[] _keys;
+    private long[] _values;
+    private int _size = 0;
+    private int _mask;
+
+    public LongAggregateMap() {
+	this(64);
+    }
+
+    /**
+     * @param capacity The initial number of slots, rounded up to a power of two
+     */
+    public LongAggregateMap(int capacity) {
+	int slots = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+	_keys = new Object[slots];
+	_values = new long[slots];
+	_mask = slots - 1;
+    }
+
+    private int slot(Object key) {
+	int h = key.hashCode() * 0x9E3779B9;
+	int i = (h ^ (h >>> 16)) & _mask;
+
+	while(_keys[i] != null && !_keys[i].equals(key)) {
+	    i = (i + 1) & _mask;
+	}
+	return i;
+    }
+
+    /**
+     * Folds a value into the given key. A key seen for the first time takes the value as
+     * is (for COUNT the value is the number of records it stands for, usually 1).
+     */
+    public void merge(Object key, long value, Op op) {
+	int i = slot(key);
+
+	if(_keys[i] == null) {
+	    _keys[i] = key;
+	    _values[i] = value;
+
+	    if(++_size * 2 > _keys.length) {
+		grow();
+	    }
+	} else {
+	    _values[i] = op.combine(_values[i], value);
+	}
+    }
+
+    /**
+     * Folds every entry of another map into this one.
+     */
+    public void mergeAll(LongAggregateMap other, Op op) {
+	for(int i = 0; i < other._keys.length; ++i) {
+	    if(other._keys[i] != null) {
+		merge(other._keys[i], other._values[i], op);
+	    }
+	}
+    }
+
+    private void grow() {
+	Object[] keys = _keys;
+	long[] values = _values;
+
+	_keys = new Object[keys.length * 2];
+	_values = new long[keys.length * 2];
+	_mask = _keys.length - 1;
+
+	for(int i = 0; i < keys.length; ++i) {
+	    if(keys[i] != null) {
+		int j = slot(keys[i]);
+		_keys[j] = keys[i];
+		_values[j] = values[i];
+	    }
+	}
+    }
+
+    public int size() {
+	return _size;
+    }
+
+    public int capacity() {
+	return _keys.length;
+    }
+
+    public Object keyAt(int slot) {
+	return _keys[slot];
+    }
+
+    public long valueAt(int slot) {
+	return _values[slot];
+    }
+
+    /**
+     * Removes every entry while keeping the allocated table for reuse.
+     */
+    public void clear() {
+	if(_size > 0) {
+	    Arrays.fill(_keys, null);
+	    _size = 0;
+	}
+    }
+}
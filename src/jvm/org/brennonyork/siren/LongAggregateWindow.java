@@ -0,0 +1,73 @@
+package org.brennonyork.siren;
+
+import java.util.List;
+
+/**
+ * Ring of panes aggregating longs per key over sliding or tumbling time windows.
+ *
+ * Each pane holds one slide within a LongAggregateMap, and closing a window merges every
+ * pane into window(), e.g.:</br></br>
+ *
+ * <code>while(ring.closeNext(now)) {</br>
+ *       &nbsp;&nbsp;emit(ring.window(), ring.windowEnd());</br>
+ *       }</code>
+ *
+ * @see PaneRing
+ * @author Brennon York
+ */
+public class LongAggregateWindow extends PaneRing<LongAggregateMap> {
+    private LongAggregateMap.Op _op;
+    private LongAggregateMap _window = new LongAggregateMap();
+
+    /**
+     * @param op Aggregation applied within each key
+     * @param windowSize Length (in ms) of each window
+     * @param slide Time (in ms) between the start of consecutive windows, which must evenly
+     *              divide windowSize
+     * @param now Current time (in ms)
+     */
+    public LongAggregateWindow(LongAggregateMap.Op op, long windowSize, long slide, long now) {
+	super(windowSize, slide, now);
+	_op = op;
+    }
+
+    protected LongAggregateMap newPane() {
+	return new LongAggregateMap();
+    }
+
+    protected void clearPane(LongAggregateMap pane) {
+	pane.clear();
+    }
+
+    protected void buildWindow(List<LongAggregateMap> panes) {
+	_window.clear();
+	for(LongAggregateMap pane : panes) {
+	    _window.mergeAll(pane, _op);
+	}
+    }
+
+    /**
+     * Folds a value into the given key within the current pane.
+     */
+    public void merge(Object key, long value) {
+	currentPane().merge(key, value, _op);
+    }
+
+    /**
+     * @return the aggregates of the window last closed, valid until the next closeNext
+     */
+    public LongAggregateMap window() {
+	return _window;
+    }
+
+    /**
+     * @return the number of keys held across every pane
+     */
+    public long size() {
+	long keys = 0;
+	for(LongAggregateMap pane : panes()) {
+	    keys += pane.size();
+	}
+	return keys;
+    }
+}
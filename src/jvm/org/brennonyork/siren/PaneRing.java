@@ -0,0 +1,110 @@
+package org.brennonyork.siren;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ring of panes behind sliding or tumbling time windows.
+ *
+ * Windows are <code>windowSize</code> ms long and start every <code>slide</code> ms; each
+ * pane holds one slide and the pane which ends a window is reused for the next slide once
+ * the window has been built. Time is given by the caller and panes are aligned to multiples
+ * of the slide. Subclasses decide what a pane holds and how the panes combine into a
+ * window, e.g.:</br></br>
+ *
+ * <code>while(ring.closeNext(now)) {</br>
+ *       &nbsp;&nbsp;emit(ring.window(), ring.windowEnd());</br>
+ *       }</code>
+ *
+ * @see LongAggregateWindow
+ * @author Brennon York
+ */
+public abstract class PaneRing<P> {
+    private long _slide;
+    private int _numPanes;
+    /** Created on first use such that subclasses are constructed before their first pane */
+    private List<P> _panes;
+    private long _windowEnd = -1;
+    /** Start of the pane currently receiving values */
+    private long _paneStart;
+    /** Index of the pane currently receiving values within the ring */
+    private int _currPane = 0;
+
+    /**
+     * @param windowSize Length (in ms) of each window
+     * @param slide Time (in ms) between the start of consecutive windows, which must evenly
+     *              divide windowSize
+     * @param now Current time (in ms)
+     */
+    protected PaneRing(long windowSize, long slide, long now) {
+	if(slide <= 0 || windowSize <= 0 || windowSize % slide != 0) {
+	    throw new IllegalArgumentException("Slide of "+slide+"ms does not divide a window of "+windowSize+"ms");
+	}
+	_slide = slide;
+	_numPanes = (int)(windowSize / slide);
+	_paneStart = now - (now % slide);
+    }
+
+    /**
+     * @return a new, empty pane
+     */
+    protected abstract P newPane();
+
+    /**
+     * Empties a pane for reuse.
+     */
+    protected abstract void clearPane(P pane);
+
+    /**
+     * Combines every pane of the ring into the window which is about to close.
+     */
+    protected abstract void buildWindow(List<P> panes);
+
+    /**
+     * @return every pane of the ring, in no particular order
+     */
+    protected List<P> panes() {
+	if(_panes == null) {
+	    _panes = new ArrayList<P>(_numPanes);
+
+	    for(int i = 0; i < _numPanes; ++i) {
+		_panes.add(newPane());
+	    }
+	}
+	return _panes;
+    }
+
+    /**
+     * @return the pane currently receiving values
+     */
+    protected P currentPane() {
+	return panes().get(_currPane);
+    }
+
+    /**
+     * Closes the oldest pane should it have ended by the given time, building the window
+     * which ends with it.
+     *
+     * @return whether a window was closed; call again until false to catch up
+     */
+    public boolean closeNext(long now) {
+	if(now < _paneStart + _slide) {
+	    return false;
+	}
+	_windowEnd = _paneStart + _slide;
+	buildWindow(panes());
+
+	// The oldest pane is reused for the next slide
+	_currPane = (_currPane + 1) % _numPanes;
+	clearPane(panes().get(_currPane));
+	_paneStart = _windowEnd;
+	return true;
+    }
+
+    /**
+     * @return the end (in ms) of the window last closed, or -1 before the first
+     */
+    public long windowEnd() {
+	return _windowEnd;
+    }
+}
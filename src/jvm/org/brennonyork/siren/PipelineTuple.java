@@ -0,0 +1,157 @@
+package org.brennonyork.siren;
+
+import backtype.storm.generated.GlobalStreamId;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.MessageId;
+import backtype.storm.tuple.Tuple;
+
+import java.util.List;
+
+/**
+ * Tuple handed between the steps of a FunctorPipeline, or viewing one record of a
+ * RecordBlock. It carries the values along with the Fields declared by the step (or block)
+ * which produced them, while every question of its origin (source component, task, stream
+ * and message id) is answered by the Storm Tuple it was derived from. It never leaves the
+ * executor.
+ *
+ * @author Brennon York
+ */
+class PipelineTuple implements Tuple {
+    private Fields _fields;
+    private List<Object> _values;
+    private Tuple _source;
+
+    PipelineTuple(Fields fields, List<Object> values, Tuple source) {
+	_fields = fields;
+	_values = values;
+	_source = source;
+    }
+
+    public int size() {
+	return _values.size();
+    }
+
+    public int fieldIndex(String field) {
+	return _fields.fieldIndex(field);
+    }
+
+    public boolean contains(String field) {
+	return _fields.contains(field);
+    }
+
+    public Object getValue(int i) {
+	return _values.get(i);
+    }
+
+    public String getString(int i) {
+	return (String)_values.get(i);
+    }
+
+    public Integer getInteger(int i) {
+	return (Integer)_values.get(i);
+    }
+
+    public Long getLong(int i) {
+	return (Long)_values.get(i);
+    }
+
+    public Boolean getBoolean(int i) {
+	return (Boolean)_values.get(i);
+    }
+
+    public Short getShort(int i) {
+	return (Short)_values.get(i);
+    }
+
+    public Byte getByte(int i) {
+	return (Byte)_values.get(i);
+    }
+
+    public Double getDouble(int i) {
+	return (Double)_values.get(i);
+    }
+
+    public Float getFloat(int i) {
+	return (Float)_values.get(i);
+    }
+
+    public byte[] getBinary(int i) {
+	return (byte[])_values.get(i);
+    }
+
+    public Object getValueByField(String field) {
+	return _values.get(fieldIndex(field));
+    }
+
+    public String getStringByField(String field) {
+	return (String)getValueByField(field);
+    }
+
+    public Integer getIntegerByField(String field) {
+	return (Integer)getValueByField(field);
+    }
+
+    public Long getLongByField(String field) {
+	return (Long)getValueByField(field);
+    }
+
+    public Boolean getBooleanByField(String field) {
+	return (Boolean)getValueByField(field);
+    }
+
+    public Short getShortByField(String field) {
+	return (Short)getValueByField(field);
+    }
+
+    public Byte getByteByField(String field) {
+	return (Byte)getValueByField(field);
+    }
+
+    public Double getDoubleByField(String field) {
+	return (Double)getValueByField(field);
+    }
+
+    public Float getFloatByField(String field) {
+	return (Float)getValueByField(field);
+    }
+
+    public byte[] getBinaryByField(String field) {
+	return (byte[])getValueByField(field);
+    }
+
+    public List<Object> getValues() {
+	return _values;
+    }
+
+    public Fields getFields() {
+	return _fields;
+    }
+
+    public List<Object> select(Fields selector) {
+	return _fields.select(selector, _values);
+    }
+
+    public GlobalStreamId getSourceGlobalStreamid() {
+	return _source.getSourceGlobalStreamid();
+    }
+
+    public String getSourceComponent() {
+	return _source.getSourceComponent();
+    }
+
+    public int getSourceTask() {
+	return _source.getSourceTask();
+    }
+
+    public String getSourceStreamId() {
+	return _source.getSourceStreamId();
+    }
+
+    public MessageId getMessageId() {
+	return _source.getMessageId();
+    }
+
+    public String toString() {
+	return "pipeline: "+_values.toString();
+    }
+}
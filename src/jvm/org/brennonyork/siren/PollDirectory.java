@@ -10,9 +10,14 @@ import backtype.storm.tuple.Tuple;
 import backtype.storm.tuple.Values;
 import backtype.storm.utils.Utils;
 
+import org.brennonyork.siren.metrics.ComponentMetrics;
+import org.brennonyork.siren.metrics.Gauge;
+import org.brennonyork.siren.metrics.StripedCounter;
+
 import java.io.File;
 import java.io.FileFilter;
 
+import java.util.LinkedList;
 import java.util.Map;
 
 /**
@@ -20,10 +25,14 @@ import java.util.Map;
  *
  * Handles polling of a given directory for files to be dropped into the 
  * system. When it finds a file, or files, it will move them to a processing
- * directory and emit those absolute file paths into the Storm stream. It polls
- * at a one second interval and, for each item found, passes it through a FileFilter
- * to determine whether or not it is a file (not directory, symlink, etc.). If so
- * it emits it into the stream.</br></br>
+ * directory and emit those absolute file paths into the Storm stream, one per call
+ * of nextTuple. Once every file has been emitted it polls again, at most once a second,
+ * and, for each item found, passes it through a FileFilter to determine whether or not
+ * it is a file (not directory, symlink, etc.). If so it queues it for the stream.</br></br>
+ *
+ * Each path is emitted with itself as the message id. A file whose tuple fails is queued
+ * again from the processing directory, such that every record of it is parsed again. The
+ * <code>files-pending</code> metric reports the files queued but not yet emitted.</br></br>
  * 
  * <b>OutputFieldsDeclaration</b></br>
  * <table>
@@ -39,7 +48,10 @@ public class PollDirectory extends BaseRichSpout {
     private FileFilter _fileFilter;
     private File _procDir;
     private File _pollDir;
-    private int _fileLen;
+    /** Paths moved into the processing directory, or failed, and not yet emitted */
+    private LinkedList<String> _pending = new LinkedList<String>();
+    private StripedCounter _recordsOut;
+    private StripedCounter _bytesRead;
 
     /**
      * Constructor denoting a root directory such that the processing and
@@ -73,24 +85,43 @@ public class PollDirectory extends BaseRichSpout {
     public void open(Map conf, TopologyContext context, SpoutOutputCollector collector) {
     	_collector = collector;
     	_fileFilter = new DocumentFilter();
+
+	ComponentMetrics metrics = ComponentMetrics.register(conf, context);
+	_recordsOut = metrics.counter(ComponentMetrics.RECORDS_OUT);
+	_bytesRead = metrics.counter(ComponentMetrics.BYTES_READ);
+	metrics.gauge(ComponentMetrics.FILES_PENDING, new Gauge() {
+		public long read() {
+		    return _pending.size();
+		}
+	    });
     }
 
     public void nextTuple() {
-    	// Returns an array containing all files under the polled directory
-	File[] fileList = _pollDir.listFiles(_fileFilter);
-	_fileLen = fileList.length;
-		
-	if(_fileLen > 0) {
-	    for(int i = 0; i < _fileLen; ++i) {
+	if(_pending.isEmpty()) {
+	    // Returns an array containing all files under the polled directory
+	    File[] fileList = _pollDir.listFiles(_fileFilter);
+
+	    for(int i = 0; i < fileList.length; ++i) {
 		// Move file to a processing directory under the polling directory
 		File fileLoc = new File(_procDir, fileList[i].getName());
+		_bytesRead.add(fileList[i].length());
 		fileList[i].renameTo(fileLoc);
-				
-		// Emit the absolute file path once it arrives in the processing directory
-		_collector.emit(new Values(fileLoc.getAbsolutePath()));
+
+		// Queue the absolute file path once it arrives in the processing directory
+		_pending.add(fileLoc.getAbsolutePath());
 	    }
 	}
-	Utils.sleep(1000); // Sleep for 1 second 
+	if(_pending.isEmpty()) {
+	    Utils.sleep(1000); // Sleep for 1 second 
+	    return;
+	}
+	String path = _pending.removeFirst();
+	_collector.emit(new Values(path), path);
+	_recordsOut.incr();
+    }
+
+    public void fail(Object msgId) {
+	_pending.add((String)msgId);
     }
 
     public void declareOutputFields(OutputFieldsDeclarer declarer) {
@@ -0,0 +1,77 @@
+package org.brennonyork.siren;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import org.apache.accumulo.core.conf.AccumuloConfiguration;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.file.FileOperations;
+import org.apache.accumulo.core.file.FileSKVIterator;
+import org.apache.accumulo.core.file.FileSKVWriter;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.system.MultiIterator;
+
+/**
+ * Merges a set of sorted RFiles into a single RFile.
+ *
+ * Each input RFile is opened as its own reader and the set of readers is walked
+ * through a heap based k-way merge such that only a single Key Value pair per input
+ * is held in memory at any given moment. This is leveraged by the BulkIngest Bolt to
+ * roll many small RFiles for the same table into fewer, larger ones before they are
+ * imported.
+ *
+ * @author Brennon York
+ */
+public class RFileMerger {
+    /**
+     * @param fs FileSystem where both the input and output RFiles reside
+     * @param conf Hadoop Configuration used to open each RFile
+     * @param inputs List of RFiles to merge; each must already be sorted
+     * @param output Path of the merged RFile to write
+     * @return the number of Key Value pairs written to the output RFile
+     * @throws IOException if any RFile cannot be read or the output cannot be written
+     */
+    public static long merge(FileSystem fs, Configuration conf, List<Path> inputs, Path output)
+	throws IOException {
+	AccumuloConfiguration acuConf = AccumuloConfiguration.getDefaultConfiguration();
+	List<SortedKeyValueIterator<Key, Value>> readers = new ArrayList<SortedKeyValueIterator<Key, Value>>();
+	FileSKVWriter writer = null;
+	long numEntries = 0;
+
+	try {
+	    for(Path input : inputs) {
+		readers.add(FileOperations.getInstance().openReader(input.toString(), false, fs, conf, acuConf));
+	    }
+
+	    MultiIterator merged = new MultiIterator(readers, false);
+	    merged.seek(new Range(), new ArrayList<ByteSequence>(), false);
+
+	    writer = FileOperations.getInstance().openWriter(output.toString(), fs, conf, acuConf);
+	    writer.startDefaultLocalityGroup();
+
+	    while(merged.hasTop()) {
+		writer.append(merged.getTopKey(), merged.getTopValue());
+		merged.next();
+		numEntries += 1;
+	    }
+	} finally {
+	    if(writer != null) {
+		writer.close();
+	    }
+	    for(SortedKeyValueIterator<Key, Value> reader : readers) {
+		((FileSKVIterator)reader).close();
+	    }
+	}
+
+	return numEntries;
+    }
+}
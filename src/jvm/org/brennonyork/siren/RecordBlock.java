@@ -0,0 +1,312 @@
+package org.brennonyork.siren;
+
+import backtype.storm.Config;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar block of records passed between siren components as the single field of a tuple,
+ * in place of one tuple of boxed Strings per record.
+ *
+ * Each field of the block is held as one column in one of three encodings:</br></br>
+ *
+ * <table>
+ *   <tr><td>LONG</td>
+ *       <td>A primitive long per record, read back as a Long.</td></tr>
+ *   <tr><td>HEX</td>
+ *       <td>Up to 8 bytes per record held as a primitive long and read back as the
+ *           lower-case hex String Parse emits for the same bytes, e.g. an address or
+ *           port.</td></tr>
+ *   <tr><td>DICTIONARY</td>
+ *       <td>Strings held once per distinct value, each record keeping the int code of its
+ *           value, such that repeated values (sensors, protocols, flags) cost four bytes.
+ *           Any other value is held, and read back, as its String form, e.g. an Integer 5
+ *           reads back as "5".</td></tr>
+ * </table></br>
+ *
+ * Every encoding holds null values; a numeric column only keeps a null flag per record
+ * once it has received a null.</br></br>
+ *
+ * The RecordBlockSerializer writes each numeric column as zig-zag varint deltas between
+ * consecutive records and each dictionary once, which typically shrinks a block several
+ * times against the Values it replaces. It is registered with a topology through
+ * <code>RecordBlock.registerSerialization(conf)</code>. Parse emits blocks when given a block
+ * size, and Function, BatchMutation and BulkMutation accept them in place of records, viewing
+ * each record as a Tuple of the block's fields anchored to the tuple carrying the block. A
+ * block must not be modified once emitted.
+ *
+ * @author Brennon York
+ */
+public class RecordBlock implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Name of the single field of every tuple carrying a block */
+    public static final String FIELD = "block";
+
+    public static enum Encoding { LONG, HEX, DICTIONARY }
+
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+    Fields _fields;
+    Encoding[] _encodings;
+    /** Number of bytes of each HEX column */
+    int[] _widths;
+    int _size = 0;
+
+    long[][] _longs;
+    /** Null flags of each numeric column, or null while the column holds no null */
+    boolean[][] _nulls;
+    int[][] _codes;
+    List<List<String>> _dicts;
+    /** Code of each value of every dictionary, rebuilt on the first add after deserialization */
+    private transient List<Map<String, Integer>> _dictIndex;
+
+    /**
+     * Block whose every field is dictionary encoded.
+     */
+    public RecordBlock(Fields fields) {
+	this(fields, fill(fields.size(), Encoding.DICTIONARY), new int[fields.size()]);
+    }
+
+    /**
+     * @param fields Fields of every record within the block
+     * @param encodings Encoding of each field
+     * @param widths Number of bytes (at most 8) of each HEX field; ignored for other fields
+     */
+    public RecordBlock(Fields fields, Encoding[] encodings, int[] widths) {
+	if(encodings.length != fields.size() || widths.length != fields.size()) {
+	    throw new IllegalArgumentException("Expected an encoding and width for each of "+fields.size()+" fields");
+	}
+	for(int i = 0; i < encodings.length; ++i) {
+	    if(encodings[i] == Encoding.HEX && (widths[i] < 1 || widths[i] > 8)) {
+		throw new IllegalArgumentException("HEX field "+fields.get(i)+" must be 1 to 8 bytes, not "+widths[i]);
+	    }
+	}
+	_fields = fields;
+	_encodings = encodings;
+	_widths = widths;
+	allocate(16);
+    }
+
+    private static Encoding[] fill(int n, Encoding e) {
+	Encoding[] encodings = new Encoding[n];
+	Arrays.fill(encodings, e);
+	return encodings;
+    }
+
+    /**
+     * Block laid out for the records a RecordTemplate parses: fields of up to 8 bytes are HEX
+     * encoded while wider fields and strings are dictionary encoded.
+     */
+    @SuppressWarnings("unchecked") // RecordTemplate serializes each field as a List<String>
+    public static RecordBlock forTemplate(RecordTemplate rt) {
+	Fields fields = rt.getFields();
+	Encoding[] encodings = new Encoding[fields.size()];
+	int[] widths = new int[fields.size()];
+	int i = 0;
+
+	for(Object o : rt.serialize()) {
+	    List<String> field = (List<String>)o;
+
+	    if(field.size() < 3) {
+		continue;
+	    }
+	    int width = field.get(0).equals("I") ? Integer.parseInt(field.get(1)) : 0;
+
+	    if(width >= 1 && width <= 8) {
+		encodings[i] = Encoding.HEX;
+		widths[i] = width;
+	    } else {
+		encodings[i] = Encoding.DICTIONARY;
+	    }
+	    i += 1;
+	}
+	return new RecordBlock(fields, encodings, widths);
+    }
+
+    /**
+     * Registers the RecordBlockSerializer within a topology configuration.
+     */
+    public static void registerSerialization(@SuppressWarnings("rawtypes") Map conf) {
+	Config.registerSerialization(conf, RecordBlock.class, RecordBlockSerializer.class);
+    }
+
+    /**
+     * @return whether the tuple carries a block rather than a single record
+     */
+    public static boolean isBlock(Tuple tuple) {
+	return tuple.size() == 1 && tuple.getValue(0) instanceof RecordBlock;
+    }
+
+    /**
+     * @return an empty block of the same fields and encodings
+     */
+    public RecordBlock emptyCopy() {
+	return new RecordBlock(_fields, _encodings, _widths);
+    }
+
+    void allocate(int capacity) {
+	int n = _encodings.length;
+	_longs = new long[n][];
+	_nulls = new boolean[n][];
+	_codes = new int[n][];
+	_dicts = new ArrayList<List<String>>(n);
+	_dictIndex = null;
+
+	for(int i = 0; i < n; ++i) {
+	    if(_encodings[i] == Encoding.DICTIONARY) {
+		_codes[i] = new int[capacity];
+		_dicts.add(new ArrayList<String>());
+	    } else {
+		_longs[i] = new long[capacity];
+		_dicts.add(null);
+	    }
+	}
+    }
+
+    private void grow() {
+	for(int i = 0; i < _encodings.length; ++i) {
+	    if(_longs[i] != null) {
+		_longs[i] = Arrays.copyOf(_longs[i], _longs[i].length * 2);
+
+		if(_nulls[i] != null) {
+		    _nulls[i] = Arrays.copyOf(_nulls[i], _longs[i].length);
+		}
+	    } else {
+		_codes[i] = Arrays.copyOf(_codes[i], _codes[i].length * 2);
+	    }
+	}
+    }
+
+    private int capacity() {
+	return (_longs[0] != null) ? _longs[0].length : _codes[0].length;
+    }
+
+    private static long parseHex(String hex) {
+	long v = 0;
+
+	for(int i = 0; i < hex.length(); ++i) {
+	    v = (v << 4) | Character.digit(hex.charAt(i), 16);
+	}
+	return v;
+    }
+
+    private int encode(int col, String value) {
+	if(value == null) {
+	    return -1;
+	}
+	if(_dictIndex == null) {
+	    _dictIndex = new ArrayList<Map<String, Integer>>(Collections.<Map<String, Integer>>nCopies(_encodings.length, null));
+	}
+	List<String> dict = _dicts.get(col);
+	Map<String, Integer> index = _dictIndex.get(col);
+
+	if(index == null) {
+	    index = new HashMap<String, Integer>();
+	    for(int i = 0; i < dict.size(); ++i) {
+		index.put(dict.get(i), i);
+	    }
+	    _dictIndex.set(col, index);
+	}
+	Integer code = index.get(value);
+
+	if(code == null) {
+	    code = dict.size();
+	    dict.add(value);
+	    index.put(value, code);
+	}
+	return code;
+    }
+
+    /**
+     * Appends a record. LONG and HEX fields take either a Number or, respectively, a decimal
+     * or hex String; DICTIONARY fields take the String form of any value. Any field may be
+     * null.
+     *
+     * @param values The values of the record, in the order of the block's fields
+     */
+    public void add(List<Object> values) {
+	if(_fields.size() > 0 && _size == capacity()) {
+	    grow();
+	}
+	for(int i = 0; i < _encodings.length; ++i) {
+	    Object v = values.get(i);
+
+	    if(v == null && _longs[i] != null) {
+		if(_nulls[i] == null) {
+		    _nulls[i] = new boolean[_longs[i].length];
+		}
+		_nulls[i][_size] = true;
+		_longs[i][_size] = 0;
+		continue;
+	    }
+	    switch(_encodings[i]) {
+	    case LONG:
+		_longs[i][_size] = (v instanceof Number) ? ((Number)v).longValue() : Long.parseLong(v.toString());
+		break;
+	    case HEX:
+		_longs[i][_size] = (v instanceof Number) ? ((Number)v).longValue() : parseHex(v.toString());
+		break;
+	    default:
+		_codes[i][_size] = encode(i, (v == null) ? null : v.toString());
+	    }
+	}
+	_size += 1;
+    }
+
+    public int size() {
+	return _size;
+    }
+
+    public Fields getFields() {
+	return _fields;
+    }
+
+    public Object get(int row, int col) {
+	if(_nulls[col] != null && _nulls[col][row]) {
+	    return null;
+	}
+	switch(_encodings[col]) {
+	case LONG:
+	    return _longs[col][row];
+	case HEX:
+	    long v = _longs[col][row];
+	    char[] chars = new char[2 * _widths[col]];
+
+	    for(int i = chars.length - 1; i >= 0; --i) {
+		chars[i] = HEX_CHARS[(int)(v & 0xf)];
+		v >>>= 4;
+	    }
+	    return new String(chars);
+	default:
+	    int code = _codes[col][row];
+	    return (code < 0) ? null : _dicts.get(col).get(code);
+	}
+    }
+
+    public List<Object> getValues(int row) {
+	List<Object> values = new ArrayList<Object>(_encodings.length);
+
+	for(int i = 0; i < _encodings.length; ++i) {
+	    values.add(get(row, i));
+	}
+	return values;
+    }
+
+    /**
+     * @param row The record to view
+     * @param source The tuple carrying this block, which answers for the record's origin
+     * @return the record as a Tuple of the block's fields
+     */
+    public Tuple tupleAt(int row, Tuple source) {
+	return new PipelineTuple(_fields, getValues(row), source);
+    }
+}
@@ -0,0 +1,142 @@
+package org.brennonyork.siren;
+
+import backtype.storm.tuple.Fields;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Kryo serializer of a RecordBlock. The fields and encodings lead, then each column in turn:
+ * numeric columns as the rows holding a null followed by zig-zag varint deltas between
+ * consecutive records (timestamps, addresses and counters mostly differ by little) and
+ * dictionary columns as their distinct values followed by a varint code per record, zero
+ * standing for null.
+ *
+ * Reading a block which is malformed, e.g. corrupted in transit, throws an
+ * IllegalArgumentException naming the field and value at fault.
+ *
+ * @author Brennon York
+ */
+public class RecordBlockSerializer extends Serializer<RecordBlock> {
+    public void write(Kryo kryo, Output output, RecordBlock block) {
+	int numFields = block._fields.size();
+
+	output.writeInt(numFields, true);
+	for(int i = 0; i < numFields; ++i) {
+	    output.writeString(block._fields.get(i));
+	    output.writeByte(block._encodings[i].ordinal());
+	    output.writeByte(block._widths[i]);
+	}
+	output.writeInt(block._size, true);
+
+	for(int i = 0; i < numFields; ++i) {
+	    if(block._encodings[i] == RecordBlock.Encoding.DICTIONARY) {
+		List<String> dict = block._dicts.get(i);
+		int[] codes = block._codes[i];
+
+		output.writeInt(dict.size(), true);
+		for(String value : dict) {
+		    output.writeString(value);
+		}
+		for(int r = 0; r < block._size; ++r) {
+		    // Null values are coded as -1
+		    output.writeInt(codes[r] + 1, true);
+		}
+	    } else {
+		long[] longs = block._longs[i];
+		boolean[] nulls = block._nulls[i];
+		int numNulls = 0;
+
+		for(int r = 0; nulls != null && r < block._size; ++r) {
+		    numNulls += nulls[r] ? 1 : 0;
+		}
+		output.writeInt(numNulls, true);
+		for(int r = 0, prevNull = 0; numNulls > 0 && r < block._size; ++r) {
+		    if(nulls[r]) {
+			output.writeInt(r - prevNull, true);
+			prevNull = r;
+		    }
+		}
+
+		long prev = 0;
+		for(int r = 0; r < block._size; ++r) {
+		    output.writeLong(longs[r] - prev, false);
+		    prev = longs[r];
+		}
+	    }
+	}
+    }
+
+    private static void check(boolean valid, String message) {
+	if(!valid) {
+	    throw new IllegalArgumentException("Malformed RecordBlock: "+message);
+	}
+    }
+
+    public RecordBlock read(Kryo kryo, Input input, Class<RecordBlock> type) {
+	RecordBlock.Encoding[] values = RecordBlock.Encoding.values();
+	int numFields = input.readInt(true);
+	check(numFields >= 0, numFields+" fields");
+	List<String> fields = new ArrayList<String>();
+	RecordBlock.Encoding[] encodings = new RecordBlock.Encoding[numFields];
+	int[] widths = new int[numFields];
+
+	for(int i = 0; i < numFields; ++i) {
+	    fields.add(input.readString());
+	    int ordinal = input.readByte();
+	    check(ordinal >= 0 && ordinal < values.length, "encoding "+ordinal+" of field "+fields.get(i));
+	    encodings[i] = values[ordinal];
+	    widths[i] = input.readByte();
+	}
+	RecordBlock block = new RecordBlock(new Fields(fields), encodings, widths);
+	int size = input.readInt(true);
+	check(size >= 0 && (size == 0 || numFields > 0), size+" records of "+numFields+" fields");
+	block.allocate(Math.max(size, 1));
+	block._size = size;
+
+	for(int i = 0; i < numFields; ++i) {
+	    if(encodings[i] == RecordBlock.Encoding.DICTIONARY) {
+		int dictSize = input.readInt(true);
+		check(dictSize >= 0, dictSize+" dictionary values of field "+fields.get(i));
+		List<String> dict = block._dicts.get(i);
+		int[] codes = block._codes[i];
+
+		for(int d = 0; d < dictSize; ++d) {
+		    dict.add(input.readString());
+		}
+		for(int r = 0; r < size; ++r) {
+		    codes[r] = input.readInt(true) - 1;
+		    check(codes[r] >= -1 && codes[r] < dictSize,
+			  "code "+codes[r]+" of record "+r+" in field "+fields.get(i)+" of "+dictSize+" values");
+		}
+	    } else {
+		long[] longs = block._longs[i];
+		int numNulls = input.readInt(true);
+		check(numNulls >= 0 && numNulls <= size, numNulls+" nulls in field "+fields.get(i)+" of "+size+" records");
+
+		if(numNulls > 0) {
+		    block._nulls[i] = new boolean[longs.length];
+		}
+		for(int n = 0, row = 0; n < numNulls; ++n) {
+		    int delta = input.readInt(true);
+		    row += delta;
+		    check((delta > 0 || n == 0) && row >= 0 && row < size,
+			  "null at record "+row+" in field "+fields.get(i)+" of "+size+" records");
+		    block._nulls[i][row] = true;
+		}
+
+		long prev = 0;
+		for(int r = 0; r < size; ++r) {
+		    prev += input.readLong(false);
+		    longs[r] = prev;
+		}
+	    }
+	}
+	return block;
+    }
+}
@@ -0,0 +1,226 @@
+package org.brennonyork.siren;
+
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Tuple;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import org.brennonyork.siren.metrics.ComponentMetrics;
+import org.brennonyork.siren.metrics.Gauge;
+import org.brennonyork.siren.metrics.StripedCounter;
+import org.brennonyork.siren.sketch.Sketch;
+import org.brennonyork.siren.sketch.Sketches;
+
+/**
+ * Summarizes an input field within a Sketch per group over time windows, e.g. the distinct
+ * destination addresses per source through a HyperLogLog or the top talkers through a TopK,
+ * such that memory is bounded by the number of groups rather than the volume of traffic.
+ *
+ * Tuples are grouped, as within a WindowAggregate, by every row, column family, column
+ * qualifier and column visibility field of a KVSchema and windows are kept as a PaneRing,
+ * one pane per slide, driven by tick tuples. When a window closes the sketches of its
+ * panes are merged and one tuple per group is emitted carrying the KVSchema fields: the key
+ * fields of the group, the serialized sketch (as a hex string, see Sketches.fromHex) within
+ * every value field and the end of the window (in milliseconds) within the timestamp field.
+ * Input tuples are acknowledged as soon as they are offered.</br></br>
+ *
+ * Since sketches merge, counting may be split across tasks: a first SketchAggregate per
+ * task feeds, through a fields grouping on the key fields, a second SketchAggregate
+ * constructed with <code>mergingSketches()</code> whose input field is the value field of
+ * the first. For example:</br></br>
+ *
+ * <code>builder.setBolt("partial", new SketchAggregate(schema, new HyperLogLog(), "dst_ip", 60, 60), 8)</br>
+ *       builder.setBolt("distinct", new SketchAggregate(schema, new HyperLogLog(), "sketch", 60, 60).mergingSketches(), 2)</br>
+ *              .fieldsGrouping("partial", new Fields("src_ip"));</code></br></br>
+ *
+ * The first stage of such a merge should use tumbling windows. A sliding window emits every
+ * item once per window it falls within, i.e. windowSize / slide times, and while merging
+ * HyperLogLogs is idempotent, merging TopKs adds their counters, so each weight would be
+ * multiplied by that factor. Every group also writes one sketch per window to its cell,
+ * which for a TopK of the default accuracy is about 22KB of hex (see TopK).</br></br>
+ *
+ * <b>OutputFieldsDeclaration</b></br>
+ * <table>
+ *   <tr><td><i>dynamic</i></td>
+ *       <td>The fields of the KVSchema given on construction.</td></tr>
+ * </table>
+ *
+ * <b>Author:</b> <a href="mailto:brennon.york@gmail.com">Brennon York</a>
+ * @author Brennon York
+ */
+public class SketchAggregate extends BaseWindowAggregate {
+    private static final long serialVersionUID = 1L;
+    static Logger log = Logger.getLogger(SketchAggregate.class);
+
+    private String _inputField;
+    private String _weightField;
+    private boolean _mergeInput = false;
+    private Sketch _prototype;
+
+    private transient SketchWindow _window;
+
+    private StripedCounter _recordsIn;
+    private StripedCounter _recordsOut;
+    private StripedCounter _parseErrors;
+
+    /**
+     * @param schema KVSchema of the downstream writer whose key fields group the tuples
+     * @param prototype Empty sketch whose type and configuration every group's sketch copies
+     * @param inputField Input field whose values are offered to the sketch
+     * @param windowSize Length (in seconds) of each window
+     * @param slide Time (in seconds) between the start of consecutive windows, which must
+     *              evenly divide windowSize
+     */
+    public SketchAggregate(KVSchema schema, Sketch prototype, String inputField, int windowSize, int slide) {
+	super(schema, windowSize, slide);
+	_prototype = prototype.emptyCopy();
+	_inputField = inputField;
+    }
+
+    /**
+     * Weights each offered value by a numeric input field, e.g. bytes for the top talkers of
+     * a TopK, rather than by one.
+     */
+    public SketchAggregate weightedBy(String weightField) {
+	_weightField = weightField;
+	return this;
+    }
+
+    /**
+     * Treats the input field as serialized sketches (either hex strings or byte arrays) of
+     * the prototype's configuration, merging them rather than offering them.
+     */
+    public SketchAggregate mergingSketches() {
+	_mergeInput = true;
+	return this;
+    }
+
+    public void prepare(@SuppressWarnings("rawtypes") Map conf, TopologyContext context, OutputCollector collector) {
+	_collector = collector;
+	_window = new SketchWindow(_prototype, _windowMs, _slideMs, System.currentTimeMillis());
+
+	ComponentMetrics metrics = ComponentMetrics.register(conf, context);
+	_recordsIn = metrics.counter(ComponentMetrics.RECORDS_IN);
+	_recordsOut = metrics.counter(ComponentMetrics.RECORDS_OUT);
+	_parseErrors = metrics.counter(ComponentMetrics.PARSE_ERRORS);
+	metrics.gauge(ComponentMetrics.BUFFERED_RECORDS, new Gauge() {
+		public long read() {
+		    return _window.size();
+		}
+	    });
+    }
+
+    /**
+     * Ring of panes, each holding a sketch per group, whose window merges the sketches of
+     * every pane.
+     */
+    private static class SketchWindow extends PaneRing<Map<List<Object>, Sketch>> {
+	private Sketch _prototype;
+	private Map<List<Object>, Sketch> _window = new HashMap<List<Object>, Sketch>();
+
+	SketchWindow(Sketch prototype, long windowSize, long slide, long now) {
+	    super(windowSize, slide, now);
+	    _prototype = prototype;
+	}
+
+	protected Map<List<Object>, Sketch> newPane() {
+	    return new HashMap<List<Object>, Sketch>();
+	}
+
+	protected void clearPane(Map<List<Object>, Sketch> pane) {
+	    pane.clear();
+	}
+
+	protected void buildWindow(List<Map<List<Object>, Sketch>> panes) {
+	    // The sketches are emitted as bytes, so the merged ones are not reused
+	    _window = new HashMap<List<Object>, Sketch>();
+
+	    for(Map<List<Object>, Sketch> pane : panes) {
+		for(Map.Entry<List<Object>, Sketch> e : pane.entrySet()) {
+		    get(_window, e.getKey()).merge(e.getValue());
+		}
+	    }
+	}
+
+	/**
+	 * @return the sketch of the group within the map, created should it not exist
+	 */
+	Sketch get(Map<List<Object>, Sketch> sketches, List<Object> key) {
+	    Sketch sketch = sketches.get(key);
+
+	    if(sketch == null) {
+		sketch = _prototype.emptyCopy();
+		sketches.put(key, sketch);
+	    }
+	    return sketch;
+	}
+
+	/**
+	 * @return the sketch of the group within the current pane
+	 */
+	Sketch current(List<Object> key) {
+	    return get(currentPane(), key);
+	}
+
+	Map<List<Object>, Sketch> window() {
+	    return _window;
+	}
+
+	long size() {
+	    long groups = 0;
+	    for(Map<List<Object>, Sketch> pane : panes()) {
+		groups += pane.size();
+	    }
+	    return groups;
+	}
+    }
+
+    /**
+     * Closes every pane which has ended, emitting the window which ends with it.
+     */
+    private void advance(long now) {
+	while(_window.closeNext(now)) {
+	    String ts = Long.toString(_window.windowEnd());
+
+	    for(Map.Entry<List<Object>, Sketch> e : _window.window().entrySet()) {
+		emitGroup(e.getKey(), Sketches.toHex(e.getValue().toBytes()), ts);
+		_recordsOut.incr();
+	    }
+	}
+    }
+
+    public void execute(Tuple tuple) {
+	advance(System.currentTimeMillis());
+
+	if(isTickTuple(tuple)) {
+	    return;
+	}
+	_recordsIn.incr();
+
+	Sketch sketch = _window.current(tuple.select(_keyFields));
+	Object input = tuple.getValueByField(_inputField);
+
+	try {
+	    if(input == null) {
+		// Nothing to count
+	    } else if(_mergeInput) {
+		sketch.mergeBytes((input instanceof byte[]) ? (byte[])input : Sketches.fromHex(input.toString()));
+	    } else {
+		Object weight = (_weightField == null) ? null : tuple.getValueByField(_weightField);
+		long count = (weight == null) ? 1
+		    : (weight instanceof Number) ? ((Number)weight).longValue() : Long.parseLong(weight.toString());
+		sketch.offer(input, count);
+	    }
+	} catch(IllegalArgumentException e) {
+	    // Also covers a NumberFormatException of the weight
+	    log.warn("Dropping tuple which could not be sketched: "+tuple, e);
+	    _parseErrors.incr();
+	}
+	_collector.ack(tuple);
+    }
+}
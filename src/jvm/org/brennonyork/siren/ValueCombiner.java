@@ -0,0 +1,28 @@
+package org.brennonyork.siren;
+
+import org.apache.accumulo.core.data.Value;
+
+import java.io.Serializable;
+
+/**
+ * Interface for developers to define how two values sharing the same Key are
+ * collapsed into a single cell. Used in tandem with the BulkMutation class while
+ * it sorts records in memory before writing them out to an RFile.
+ *
+ * @author Brennon York
+ */
+public interface ValueCombiner extends Serializable {
+    /**
+     * This will be the function that is applied whenever a record arrives whose
+     * row, column family, column qualifier, and column visibility already exist
+     * within the in-memory buffer. The resulting cell keeps the greater of the two
+     * timestamps.
+     *
+     * @param current the value already residing within the buffer
+     * @param currentTs the timestamp associated with the current value
+     * @param incoming the value of the newly arrived record
+     * @param incomingTs the timestamp associated with the incoming value
+     * @return new Value object to store in place of the current value
+     */
+    public Value combine(Value current, long currentTs, Value incoming, long incomingTs);
+}
@@ -0,0 +1,125 @@
+package org.brennonyork.siren;
+
+import org.apache.accumulo.core.data.Value;
+
+import java.util.TreeSet;
+
+/**
+ * Set of common ValueCombiner implementations for use with the BulkMutation Bolt.
+ *
+ * Because every value generated through a KVSchema is a string, each numeric
+ * combiner reads and writes its values as base 10 encoded longs. This mirrors the
+ * STRING encoding of the Accumulo LongCombiner such that server side combiners
+ * configured on the same table continue to operate over bulk ingested cells.</br></br>
+ *
+ * <code>new BulkMutation(schema, new ValueCombiners.Sum());</code>
+ *
+ * @author Brennon York
+ */
+public class ValueCombiners {
+    private static long toLong(Value v) {
+	return Long.parseLong(new String(v.get()).trim());
+    }
+
+    private static Value toValue(long l) {
+	return new Value(Long.toString(l).getBytes());
+    }
+
+    /**
+     * Adds both values together.
+     */
+    public static class Sum implements ValueCombiner {
+	private static final long serialVersionUID = 1L;
+
+	public Value combine(Value current, long currentTs, Value incoming, long incomingTs) {
+	    return toValue(toLong(current) + toLong(incoming));
+	}
+    }
+
+    /**
+     * Retains the smaller of both values.
+     */
+    public static class Min implements ValueCombiner {
+	private static final long serialVersionUID = 1L;
+
+	public Value combine(Value current, long currentTs, Value incoming, long incomingTs) {
+	    return toValue(Math.min(toLong(current), toLong(incoming)));
+	}
+    }
+
+    /**
+     * Retains the larger of both values.
+     */
+    public static class Max implements ValueCombiner {
+	private static final long serialVersionUID = 1L;
+
+	public Value combine(Value current, long currentTs, Value incoming, long incomingTs) {
+	    return toValue(Math.max(toLong(current), toLong(incoming)));
+	}
+    }
+
+    /**
+     * Retains the value with the newest timestamp. When both timestamps are equal the
+     * incoming value wins, matching the behavior of a plain <code>TreeMap.put</code>.
+     */
+    public static class LastWriteWins implements ValueCombiner {
+	private static final long serialVersionUID = 1L;
+
+	public Value combine(Value current, long currentTs, Value incoming, long incomingTs) {
+	    return (incomingTs >= currentTs) ? incoming : current;
+	}
+    }
+
+    /**
+     * Treats each value as a delimited set of strings and retains the sorted union of
+     * both sets.
+     */
+    public static class SetUnion implements ValueCombiner {
+	private static final long serialVersionUID = 1L;
+
+	private String _delim;
+
+	/** Constructor using a comma as the set delimiter */
+	public SetUnion() {
+	    this(",");
+	}
+
+	/**
+	 * @param delim string delimiter separating each member of the set
+	 */
+	public SetUnion(String delim) {
+	    _delim = delim;
+	}
+
+	private void addMembers(TreeSet<String> set, Value v) {
+	    String s = new String(v.get());
+	    int start = 0;
+	    int end;
+
+	    while((end = s.indexOf(_delim, start)) != -1) {
+		if(end > start) {
+		    set.add(s.substring(start, end));
+		}
+		start = end + _delim.length();
+	    }
+	    if(start < s.length()) {
+		set.add(s.substring(start));
+	    }
+	}
+
+	public Value combine(Value current, long currentTs, Value incoming, long incomingTs) {
+	    TreeSet<String> set = new TreeSet<String>();
+	    addMembers(set, current);
+	    addMembers(set, incoming);
+
+	    StringBuilder sb = new StringBuilder();
+	    for(String member : set) {
+		if(sb.length() > 0) {
+		    sb.append(_delim);
+		}
+		sb.append(member);
+	    }
+	    return new Value(sb.toString().getBytes());
+	}
+    }
+}
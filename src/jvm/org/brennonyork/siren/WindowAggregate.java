@@ -0,0 +1,135 @@
+package org.brennonyork.siren;
+
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Tuple;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import org.brennonyork.siren.metrics.ComponentMetrics;
+import org.brennonyork.siren.metrics.Gauge;
+import org.brennonyork.siren.metrics.StripedCounter;
+
+/**
+ * Pre-aggregates tuples over time windows ahead of a BatchMutation or BulkMutation bolt.
+ *
+ * Tuples are grouped by every row, column family, column qualifier and column visibility
+ * field of a KVSchema, such that each group lands on a single Accumulo cell, and a count,
+ * sum, minimum or maximum of one numeric input field is kept per group. Windows are
+ * <code>windowSize</code> seconds long and start every <code>slide</code> seconds; a window
+ * whose slide equals its size is tumbling. Each window is kept as a LongAggregateWindow, a
+ * ring of panes, one per slide, within primitive-valued hash maps such that aggregating a
+ * tuple allocates nothing beyond its key. Time is that of the worker, aligned to multiples
+ * of the slide, and tick tuples close windows while no tuples arrive.</br></br>
+ *
+ * When a window closes one tuple per group is emitted carrying the KVSchema fields: the
+ * key fields of the group, the aggregate (as a base-10 string) within every value field and
+ * the end of the window (in milliseconds) within the timestamp field. Input tuples are
+ * acknowledged as soon as they are aggregated, so the open windows of a failed worker are
+ * lost rather than replayed.</br></br>
+ *
+ * Every tuple of a group must reach the same task, so the bolt has to be subscribed through
+ * a fields grouping on the key fields whenever it runs with more than one task. Otherwise
+ * each task emits a partial aggregate of the group for the same cell and timestamp, and the
+ * writer keeps only one of them. For example:</br></br>
+ *
+ * <code>builder.setBolt("bytes_per_src", new WindowAggregate(schema, LongAggregateMap.Op.SUM, "bytes", 60, 10), 4)</br>
+ *              .fieldsGrouping("parse", new Fields("src_ip"));</code></br></br>
+ *
+ * <b>OutputFieldsDeclaration</b></br>
+ * <table>
+ *   <tr><td><i>dynamic</i></td>
+ *       <td>The fields of the KVSchema given on construction.</td></tr>
+ * </table>
+ *
+ * <b>Author:</b> <a href="mailto:brennon.york@gmail.com">Brennon York</a>
+ * @author Brennon York
+ */
+public class WindowAggregate extends BaseWindowAggregate {
+    private static final long serialVersionUID = 1L;
+    static Logger log = Logger.getLogger(WindowAggregate.class);
+
+    private String _inputField;
+    private LongAggregateMap.Op _op;
+
+    private transient LongAggregateWindow _window;
+
+    private StripedCounter _recordsIn;
+    private StripedCounter _recordsOut;
+
+    /**
+     * @param schema KVSchema of the downstream writer whose key fields group the tuples
+     * @param op Aggregation applied within each group
+     * @param inputField Numeric input field aggregated by SUM, MIN and MAX; ignored by COUNT
+     * @param windowSize Length (in seconds) of each window
+     * @param slide Time (in seconds) between the start of consecutive windows, which must
+     *              evenly divide windowSize
+     */
+    public WindowAggregate(KVSchema schema, LongAggregateMap.Op op, String inputField, int windowSize, int slide) {
+	super(schema, windowSize, slide);
+	_op = op;
+	_inputField = inputField;
+    }
+
+    public void prepare(@SuppressWarnings("rawtypes") Map conf, TopologyContext context, OutputCollector collector) {
+	_collector = collector;
+	_window = new LongAggregateWindow(_op, _windowMs, _slideMs, System.currentTimeMillis());
+
+	ComponentMetrics metrics = ComponentMetrics.register(conf, context);
+	_recordsIn = metrics.counter(ComponentMetrics.RECORDS_IN);
+	_recordsOut = metrics.counter(ComponentMetrics.RECORDS_OUT);
+	metrics.gauge(ComponentMetrics.BUFFERED_RECORDS, new Gauge() {
+		public long read() {
+		    return _window.size();
+		}
+	    });
+    }
+
+    private static long toLong(Object v) {
+	return (v instanceof Number) ? ((Number)v).longValue() : Long.parseLong(v.toString());
+    }
+
+    /**
+     * Closes every pane which has ended, emitting the window which ends with it.
+     */
+    private void advance(long now) {
+	while(_window.closeNext(now)) {
+	    emitWindow(_window.window(), _window.windowEnd());
+	}
+    }
+
+    @SuppressWarnings("unchecked") // every key is the List returned by Tuple.select
+    private void emitWindow(LongAggregateMap window, long windowEnd) {
+	String ts = Long.toString(windowEnd);
+
+	for(int i = 0; i < window.capacity(); ++i) {
+	    List<Object> key = (List<Object>)window.keyAt(i);
+
+	    if(key == null) {
+		continue;
+	    }
+	    emitGroup(key, Long.toString(window.valueAt(i)), ts);
+	    _recordsOut.incr();
+	}
+    }
+
+    public void execute(Tuple tuple) {
+	advance(System.currentTimeMillis());
+
+	if(isTickTuple(tuple)) {
+	    return;
+	}
+	_recordsIn.incr();
+
+	try {
+	    long value = (_op == LongAggregateMap.Op.COUNT) ? 1 : toLong(tuple.getValueByField(_inputField));
+	    _window.merge(tuple.select(_keyFields), value);
+	} catch(NumberFormatException e) {
+	    log.warn("Dropping tuple with a non-numeric "+_inputField+": "+tuple);
+	}
+	_collector.ack(tuple);
+    }
+}
@@ -67,6 +67,7 @@ public class BulkIngestTopology {
 	conf.put("bulk.output.path", "/tmp/rf");
 	conf.put("bulk.write.timeout", 10);
 	conf.put("bulk.max.records", 1000);
+	conf.put("bulk.import.max.age", 10);
 	conf.put("zookeeper.servers", "localhost");
 	conf.put("zookeeper.instance.name", "dev_instance");
 	conf.put("accumulo.user", "root");
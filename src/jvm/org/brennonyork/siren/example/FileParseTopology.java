@@ -4,20 +4,24 @@ import backtype.storm.Config;
 import backtype.storm.LocalCluster;
 import backtype.storm.StormSubmitter;
 import backtype.storm.topology.TopologyBuilder;
+import backtype.storm.tuple.Fields;
 
 import java.util.HashMap;
 import java.util.Map;
 
+import org.brennonyork.siren.BatchMutation;
+import org.brennonyork.siren.KVSchema;
 import org.brennonyork.siren.RecordTemplate;
 import org.brennonyork.siren.PollDirectory;
 import org.brennonyork.siren.Parse;
+import org.brennonyork.siren.Deduplicate;
 
 /**
  * Demonstrates how to parse a binary SiLK file into a Storm stream.
  *
- * This simple class leverages three core pieces of the Siren library to inject SiLK records
+ * This simple class leverages five core pieces of the Siren library to inject SiLK records
  * into the Storm stream. Files are found in a given directory, parsed into their constituent
- * pieces, and finally emitted into the stream.</br></br>
+ * pieces, deduplicated, and finally written into Accumulo.</br></br>
  * 
  * <b>Classes</b></br>
  * <table>
@@ -32,6 +36,12 @@ import org.brennonyork.siren.Parse;
  *   <tr><td>Parse</td>
  *       <td>Leveraging the <code>Record Template</code> it reads files off the stream and
  *           parses them into records. Those records are then output to the stream.</td></tr>
+ *   <tr><td>Deduplicate</td>
+ *       <td>Drops the records of files which are parsed again after a failure once their
+ *           first copy has been written, such that each flow is stored once.</td></tr>
+ *   <tr><td>BatchMutation</td>
+ *       <td>Writes each flow into Accumulo and confirms every flushed flow back to the
+ *           <code>Deduplicate</code> bolt.</td></tr>
  * </table>
  * 
  * <b>Author:</b> <a href="mailto:brennon.york@gmail.com">Brennon York</a>
@@ -66,8 +76,20 @@ public class FileParseTopology {
 	    .readBytes(4, "dip")
 	    .readBytes(4, "nhip");
 
+	KVSchema flows = new KVSchema("flows", "sip");
+	flows.colFam.add("dip");
+	flows.colQual.add("sport").addStatic(":").add("dport").addStatic(":").add("proto").addStatic(":").add("ts");
+	flows.value.add("bytes");
+
+	// Identifies a flow, both to drop its copies and to confirm its write
+	Fields flowKey = new Fields("ts", "sip", "dip", "sport", "dport", "proto");
+
 	builder.setSpout("poll_spout", new PollDirectory("/tmp/silk/dir", "/tmp/silk/dir/proc"), 1);
 	builder.setBolt("silk_atomize", new Parse(SilkRecord), 2).shuffleGrouping("poll_spout");
+	builder.setBolt("silk_dedup", new Deduplicate(SilkRecord.getFields(), flowKey, 1000000, 0.001, 600), 2)
+	    .fieldsGrouping("silk_atomize", flowKey)
+	    .fieldsGrouping("silk_write", BatchMutation.WRITTEN_STREAM, flowKey);
+	builder.setBolt("silk_write", new BatchMutation(flows, true).confirmWrites(flowKey), 2).shuffleGrouping("silk_dedup");
 		
 	Map conf = new HashMap();
 	conf.put(Config.TOPOLOGY_WORKERS, 4);
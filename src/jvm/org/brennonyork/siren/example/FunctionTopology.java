@@ -12,8 +12,10 @@ import backtype.storm.tuple.Values;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.brennonyork.siren.FilterFunctor;
 import org.brennonyork.siren.Function;
 import org.brennonyork.siren.Functor;
+import org.brennonyork.siren.FunctorPipeline;
 
 /**
  * An example use of a Function Bolt to manipulate elements in the stream.
@@ -28,6 +30,12 @@ import org.brennonyork.siren.Functor;
  *   <tr><td>Functor</td>
  *       <td>An interface to define a single function <code>eval</code> which manipulates tuple
  *           elements within the stream and returns a new <code>Values</code> object.</td></tr>
+ *   <tr><td>FilterFunctor</td>
+ *       <td>An interface to define a single predicate <code>accept</code> which drops tuples
+ *           from the stream before anything is emitted.</td></tr>
+ *   <tr><td>FunctorPipeline</td>
+ *       <td>Chains Functors and FilterFunctors so that they all run within a single Function
+ *           Bolt, here dropping short words before doubling them.</td></tr>
  *   <tr><td>Function</td>
  *       <td>The actual Bolt that manipulates the Storm stream. It takes the static
  *           <code>Functor</code> and calls the user-defined <code>eval</code> on each tuple
@@ -47,11 +55,20 @@ public class FunctionTopology {
 	}
     }
 
+    public static class LongWords implements FilterFunctor {
+	public boolean accept(Tuple tuple) {
+	    return tuple.getString(0).length() > 4;
+	}
+    }
+
     void run(String[] args) {
 	TopologyBuilder builder = new TopologyBuilder();
 
 	builder.setSpout("word_spout", new TestWordSpout(), 2);
-	builder.setBolt("tuple_double", new Function(new Double(), new Fields("word1", "word2")), 2).shuffleGrouping("word_spout");
+	builder.setBolt("tuple_double", new Function(new FunctorPipeline()
+						     .filter(new LongWords())
+						     .map(new Double(), new Fields("word1", "word2"))), 2)
+	    .shuffleGrouping("word_spout");
 		
 	Map conf = new HashMap();
 	conf.put(Config.TOPOLOGY_WORKERS, 4);
@@ -0,0 +1,104 @@
+package org.brennonyork.siren.example;
+
+import backtype.storm.Config;
+import backtype.storm.LocalCluster;
+import backtype.storm.StormSubmitter;
+import backtype.storm.topology.TopologyBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.brennonyork.siren.BatchMutation;
+import org.brennonyork.siren.KVSchema;
+import org.brennonyork.siren.Parse;
+import org.brennonyork.siren.PollDirectory;
+import org.brennonyork.siren.RecordBlock;
+import org.brennonyork.siren.RecordTemplate;
+
+/**
+ * Demonstrates how to pass SiLK records between bolts in columnar RecordBlocks.
+ *
+ * Files are found in a given directory and parsed into blocks of up to 1024 records, each
+ * emitted as a single tuple, which a BatchMutation writes into Accumulo record by record.
+ * The RecordBlockSerializer is registered within the topology configuration such that
+ * blocks crossing workers are sent in their compact form.</br></br>
+ *
+ * <b>Classes</b></br>
+ * <table>
+ *   <tr><td>RecordTemplate</td>
+ *       <td>Describes each SiLK record, from which the block's columns are laid out.</td></tr>
+ *   <tr><td>PollDirectory</td>
+ *       <td>Polls the given directory for SiLK binary records and emits the absolute path
+ *           of each file once moved into its processing directory.</td></tr>
+ *   <tr><td>Parse</td>
+ *       <td>Given a block size, reads each file into RecordBlocks rather than one tuple
+ *           per record.</td></tr>
+ *   <tr><td>BatchMutation</td>
+ *       <td>Accepts the blocks in place of records and writes each flow into Accumulo.</td></tr>
+ * </table>
+ *
+ * <b>Author:</b> <a href="mailto:brennon.york@gmail.com">Brennon York</a>
+ * @author Brennon York
+ */
+public class RecordBlockTopology {
+
+    void run(String[] args) {
+	TopologyBuilder builder = new TopologyBuilder();
+
+	// Build the record template for a given SiLK record
+	RecordTemplate SilkRecord =
+	    (new RecordTemplate())
+	    .readBytes(8, "ts")
+	    .readBytes(4, "dur")
+	    .readBytes(2, "sport")
+	    .readBytes(2, "dport")
+	    .readBytes(1, "proto")
+	    .readBytes(1, "ct")
+	    .readBytes(2, "sensor")
+	    .readBytes(1, "flags")
+	    .readBytes(1, "init_flags")
+	    .readBytes(1, "sess_flags")
+	    .readBytes(1, "attr")
+	    .readBytes(2, "appl")
+	    .skipBytes(2)
+	    .readBytes(2, "snmp_in")
+	    .readBytes(2, "snmp_out")
+	    .readBytes(4, "packets")
+	    .readBytes(4, "bytes")
+	    .readBytes(4, "sip")
+	    .readBytes(4, "dip")
+	    .readBytes(4, "nhip");
+
+	KVSchema flows = new KVSchema("flows", "sip");
+	flows.colFam.add("dip");
+	flows.colQual.add("sport").addStatic(":").add("dport").addStatic(":").add("proto").addStatic(":").add("ts");
+	flows.value.add("bytes");
+
+	builder.setSpout("poll_spout", new PollDirectory("/tmp/silk/dir", "/tmp/silk/dir/proc"), 1);
+	builder.setBolt("silk_atomize", new Parse(SilkRecord, 1024), 2).shuffleGrouping("poll_spout");
+	builder.setBolt("silk_write", new BatchMutation(flows, true), 2).shuffleGrouping("silk_atomize");
+
+	Map conf = new HashMap();
+	conf.put(Config.TOPOLOGY_WORKERS, 4);
+	conf.put(Config.TOPOLOGY_DEBUG, true);
+	RecordBlock.registerSerialization(conf);
+
+	if(args.length==0) {
+            LocalCluster cluster = new LocalCluster();
+            cluster.submitTopology("MockIngest", conf, builder.createTopology());
+        } else {
+	    try {
+		StormSubmitter.submitTopology(args[0], conf, builder.createTopology());
+	    } catch(Exception e) {
+		e.printStackTrace();
+	    }
+	}
+    }
+
+    void RecordBlockTopology() { }
+
+    public static void main(String[] args) {
+	RecordBlockTopology rbt = new RecordBlockTopology();
+	rbt.run(args);
+    }
+}
@@ -0,0 +1,119 @@
+package org.brennonyork.siren.metrics;
+
+import backtype.storm.Config;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.IMetricsContext;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Common set of counters, histograms and gauges reported by every siren spout and bolt.
+ *
+ * Each component registers its ComponentMetrics within <code>prepare</code> or
+ * <code>open</code> under the name <code>siren</code>, such that any of Storm's metrics
+ * consumers (e.g. <code>LoggingMetricsConsumer</code>) receives a single map per task every
+ * <code>topology.builtin.metrics.bucket.size.secs</code> seconds. Counters and histograms
+ * never lock, so recording on the tuple path costs a few atomic increments.</br></br>
+ *
+ * <b>Metrics</b></br>
+ * <table>
+ *   <tr><td>records-in / records-out</td><td>Tuples received and emitted (or written).</td></tr>
+ *   <tr><td>bytes-read</td><td>Bytes of the files polled or parsed.</td></tr>
+ *   <tr><td>parse-errors</td><td>Files which could not be opened or parsed.</td></tr>
+ *   <tr><td>mutations-written / mutations-rejected</td><td>Mutations flushed to, or rejected
+ *       by, Accumulo.</td></tr>
+ *   <tr><td>files-imported / files-rejected</td><td>Input files whose RFiles were bulk imported,
+ *       or which were failed once their import was given up.</td></tr>
+ *   <tr><td>flush-ms / import-ms</td><td>Histograms of flush and bulk import durations.</td></tr>
+ *   <tr><td>buffered-records / files-pending</td><td>Gauges of records held in memory and
+ *       files awaiting processing.</td></tr>
+ *   <tr><td>duplicates-dropped</td><td>Records filtered out as already seen.</td></tr>
+ * </table>
+ *
+ * @author Brennon York
+ */
+public class ComponentMetrics implements IMetric {
+    public static final String RECORDS_IN = "records-in";
+    public static final String RECORDS_OUT = "records-out";
+    public static final String BYTES_READ = "bytes-read";
+    public static final String PARSE_ERRORS = "parse-errors";
+    public static final String MUTATIONS_WRITTEN = "mutations-written";
+    public static final String MUTATIONS_REJECTED = "mutations-rejected";
+    public static final String FILES_IMPORTED = "files-imported";
+    public static final String FILES_REJECTED = "files-rejected";
+    public static final String FLUSH_MILLIS = "flush-ms";
+    public static final String IMPORT_MILLIS = "import-ms";
+    public static final String BUFFERED_RECORDS = "buffered-records";
+    public static final String FILES_PENDING = "files-pending";
+    public static final String DUPLICATES_DROPPED = "duplicates-dropped";
+
+    private Map<String, StripedCounter> _counters = new ConcurrentHashMap<String, StripedCounter>();
+    private Map<String, LogLinearHistogram> _histograms = new ConcurrentHashMap<String, LogLinearHistogram>();
+    private Map<String, Gauge> _gauges = new ConcurrentHashMap<String, Gauge>();
+
+    /**
+     * Creates the metrics of a component and registers them with Storm.
+     *
+     * @param conf The Storm configuration handed to prepare or open
+     * @param context The context handed to prepare or open
+     * @return the registered metrics
+     */
+    public static ComponentMetrics register(Map conf, IMetricsContext context) {
+	int bucketSize = 60;
+
+	if(conf.containsKey(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS)) {
+	    bucketSize = Integer.parseInt(conf.get(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS).toString());
+	}
+	return context.registerMetric("siren", new ComponentMetrics(), bucketSize);
+    }
+
+    /**
+     * @return the counter of the given name, created on first use
+     */
+    public synchronized StripedCounter counter(String name) {
+	StripedCounter counter = _counters.get(name);
+
+	if(counter == null) {
+	    counter = new StripedCounter();
+	    _counters.put(name, counter);
+	}
+	return counter;
+    }
+
+    /**
+     * @return the histogram of the given name, created on first use
+     */
+    public synchronized LogLinearHistogram histogram(String name) {
+	LogLinearHistogram histogram = _histograms.get(name);
+
+	if(histogram == null) {
+	    histogram = new LogLinearHistogram();
+	    _histograms.put(name, histogram);
+	}
+	return histogram;
+    }
+
+    /**
+     * Samples the gauge under the given name at every report.
+     */
+    public void gauge(String name, Gauge gauge) {
+	_gauges.put(name, gauge);
+    }
+
+    public Object getValueAndReset() {
+	Map<String, Object> stats = new HashMap<String, Object>();
+
+	for(Map.Entry<String, StripedCounter> entry : _counters.entrySet()) {
+	    stats.put(entry.getKey(), entry.getValue().getValueAndReset());
+	}
+	for(Map.Entry<String, LogLinearHistogram> entry : _histograms.entrySet()) {
+	    stats.put(entry.getKey(), entry.getValue().getValueAndReset());
+	}
+	for(Map.Entry<String, Gauge> entry : _gauges.entrySet()) {
+	    stats.put(entry.getKey(), entry.getValue().read());
+	}
+	return stats;
+    }
+}
@@ -0,0 +1,11 @@
+package org.brennonyork.siren.metrics;
+
+/**
+ * Point in time reading of a component, such as the number of records buffered, which is
+ * sampled whenever its ComponentMetrics are reported.
+ *
+ * @author Brennon York
+ */
+public interface Gauge {
+    public long read();
+}
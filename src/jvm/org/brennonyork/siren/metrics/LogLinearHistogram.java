@@ -0,0 +1,146 @@
+package org.brennonyork.siren.metrics;
+
+import backtype.storm.metric.api.IMetric;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative longs (e.g. latencies in milliseconds or batch sizes).
+ *
+ * Values are counted within log-linear buckets: each power of two is split into 16 linear
+ * sub-buckets, so every value is recorded within roughly 6% of itself while the whole range
+ * of a long fits within a thousand counters. Recording a value is two atomic increments and
+ * never blocks, such that the histogram may be shared by any number of threads.</br></br>
+ *
+ * As a Storm metric it reports the count, mean, p50, p99, p999 and maximum recorded since
+ * the previous report.
+ *
+ * @author Brennon York
+ */
+public class LogLinearHistogram implements IMetric {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int NUM_BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+    private AtomicLongArray _counts = new AtomicLongArray(NUM_BUCKETS);
+    private AtomicLong _sum = new AtomicLong();
+    private AtomicLong _max = new AtomicLong();
+
+    /** Point in time view of a histogram */
+    public static class Snapshot {
+	private long[] _counts;
+	private long _total;
+	private long _sum;
+	private long _max;
+
+	private Snapshot(long[] counts, long sum, long max) {
+	    _counts = counts;
+	    _sum = sum;
+	    _max = max;
+
+	    for(long c : counts) {
+		_total += c;
+	    }
+	}
+
+	public long getCount() {
+	    return _total;
+	}
+
+	public long getMax() {
+	    return _max;
+	}
+
+	public double getMean() {
+	    return (_total == 0) ? 0.0 : ((double)_sum / (double)_total);
+	}
+
+	/**
+	 * @param quantile The quantile within [0, 1], e.g. 0.99
+	 * @return the upper bound of the bucket holding the quantile, never beyond the max
+	 */
+	public long getPercentile(double quantile) {
+	    if(_total == 0) {
+		return 0;
+	    }
+	    long rank = (long)Math.ceil(quantile * _total);
+	    long seen = 0;
+
+	    for(int i = 0; i < _counts.length; ++i) {
+		seen += _counts[i];
+
+		if(seen >= rank && _counts[i] > 0) {
+		    return Math.min(upperBound(i), _max);
+		}
+	    }
+	    return _max;
+	}
+
+	public Map<String, Object> toMap() {
+	    Map<String, Object> stats = new HashMap<String, Object>();
+	    stats.put("count", getCount());
+	    stats.put("mean", getMean());
+	    stats.put("p50", getPercentile(0.5));
+	    stats.put("p99", getPercentile(0.99));
+	    stats.put("p999", getPercentile(0.999));
+	    stats.put("max", getMax());
+	    return stats;
+	}
+    }
+
+    static int bucket(long value) {
+	if(value < SUB_COUNT) {
+	    return (int)Math.max(value, 0);
+	}
+	int exp = 63 - Long.numberOfLeadingZeros(value);
+	int sub = (int)(value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+	return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    static long upperBound(int bucket) {
+	if(bucket < SUB_COUNT) {
+	    return bucket;
+	}
+	int exp = bucket / SUB_COUNT + SUB_BITS - 1;
+	long sub = bucket % SUB_COUNT;
+	long lower = (1L << exp) | (sub << (exp - SUB_BITS));
+	return lower + (1L << (exp - SUB_BITS)) - 1;
+    }
+
+    /**
+     * @param value The value to record; negative values are recorded as 0
+     */
+    public void record(long value) {
+	// Clamped before summing too, such that the mean matches the recorded values
+	value = Math.max(value, 0);
+	_counts.incrementAndGet(bucket(value));
+	_sum.addAndGet(value);
+
+	long max = _max.get();
+	while(value > max && !_max.compareAndSet(max, value)) {
+	    max = _max.get();
+	}
+    }
+
+    /**
+     * @param reset Whether every bucket is cleared once read
+     * @return a view of the values recorded since the last reset
+     */
+    public Snapshot snapshot(boolean reset) {
+	long[] counts = new long[NUM_BUCKETS];
+
+	for(int i = 0; i < NUM_BUCKETS; ++i) {
+	    counts[i] = reset ? _counts.getAndSet(i, 0) : _counts.get(i);
+	}
+	long sum = reset ? _sum.getAndSet(0) : _sum.get();
+	long max = reset ? _max.getAndSet(0) : _max.get();
+	return new Snapshot(counts, sum, max);
+    }
+
+    public Object getValueAndReset() {
+	return snapshot(true).toMap();
+    }
+}
@@ -0,0 +1,53 @@
+package org.brennonyork.siren.metrics;
+
+import backtype.storm.metric.api.IMetric;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free counter striped across cells by thread.
+ *
+ * Each thread increments the cell chosen by its id such that threads sharing a counter
+ * (e.g. a bolt and its background workers) rarely contend on the same cache line. Cells
+ * are padded apart and only summed when the counter is read. As a Storm metric it reports
+ * the total counted since the previous report.
+ *
+ * @author Brennon York
+ */
+public class StripedCounter implements IMetric {
+    private static final int STRIPES = 16;
+    /** Longs between two cells, keeping each cell on its own cache line */
+    private static final int PADDING = 8;
+
+    private AtomicLongArray _cells = new AtomicLongArray(STRIPES * PADDING);
+
+    private static int cell() {
+	return (int)(Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+    }
+
+    public void incr() {
+	_cells.incrementAndGet(cell());
+    }
+
+    public void add(long n) {
+	_cells.addAndGet(cell(), n);
+    }
+
+    public long get() {
+	long sum = 0;
+
+	for(int i = 0; i < STRIPES; ++i) {
+	    sum += _cells.get(i * PADDING);
+	}
+	return sum;
+    }
+
+    public Object getValueAndReset() {
+	long sum = 0;
+
+	for(int i = 0; i < STRIPES; ++i) {
+	    sum += _cells.getAndSet(i * PADDING, 0);
+	}
+	return sum;
+    }
+}
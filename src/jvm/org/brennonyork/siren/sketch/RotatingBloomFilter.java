@@ -0,0 +1,102 @@
+package org.brennonyork.siren.sketch;
+
+/**
+ * Bloom filter over a sliding span of time, built from a ring of generations.
+ *
+ * Items are added to the newest generation and tested against every generation. Each
+ * <code>rotate()</code> clears the oldest generation and makes it the newest, such that
+ * an item is remembered for between (generations - 1) and generations rotations while
+ * memory stays fixed at the size of the generations. Each generation is sized for the
+ * expected number of items per rotation at a false positive rate of fpp / generations,
+ * which bounds the rate across every generation by fpp. Items are given as 64-bit hashes
+ * (see Sketches.hash64) from which every bit position is derived.
+ *
+ * @author Brennon York
+ */
+public class RotatingBloomFilter {
+    private long[][] _generations;
+    private long _numBits;
+    private int _numHashes;
+    /** Index of the generation receiving items */
+    private int _curr = 0;
+
+    /**
+     * @param expectedItems Number of distinct items expected per rotation
+     * @param fpp Target false positive rate across every generation
+     * @param generations Number of generations (at least two) within the ring
+     */
+    public RotatingBloomFilter(long expectedItems, double fpp, int generations) {
+	if(generations < 2) {
+	    throw new IllegalArgumentException("A RotatingBloomFilter needs at least two generations, not "+generations);
+	}
+	double ln2 = Math.log(2);
+	double genFpp = fpp / generations;
+	long numBits = (long)Math.ceil(-Math.max(1, expectedItems) * Math.log(genFpp) / (ln2 * ln2));
+
+	_numBits = ((numBits + 63) / 64) * 64;
+	_numHashes = Math.max(1, (int)Math.round((double)_numBits / Math.max(1, expectedItems) * ln2));
+	_generations = new long[generations][(int)(_numBits / 64)];
+    }
+
+    private long bit(long hash, int i) {
+	// Kirsch-Mitzenmacher: every bit position combines the two halves of one hash
+	long combined = (hash & 0xffffffffL) + i * (hash >>> 32);
+	return (combined & Long.MAX_VALUE) % _numBits;
+    }
+
+    private static boolean isSet(long[] bits, long bit) {
+	return (bits[(int)(bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    public boolean mightContain(long hash) {
+	for(long[] bits : _generations) {
+	    boolean all = true;
+
+	    for(int i = 0; i < _numHashes && all; ++i) {
+		all = isSet(bits, bit(hash, i));
+	    }
+	    if(all) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * Adds an item unless it may already have been seen.
+     *
+     * @param hash The hash of the item
+     * @return true if the item was definitely not seen before and has been added
+     */
+    public boolean putIfAbsent(long hash) {
+	if(mightContain(hash)) {
+	    return false;
+	}
+	long[] bits = _generations[_curr];
+
+	for(int i = 0; i < _numHashes; ++i) {
+	    long bit = bit(hash, i);
+	    bits[(int)(bit >>> 6)] |= 1L << bit;
+	}
+	return true;
+    }
+
+    /**
+     * Forgets the items of the oldest generation, which then receives every new item.
+     */
+    public void rotate() {
+	_curr = (_curr + 1) % _generations.length;
+	long[] bits = _generations[_curr];
+
+	for(int i = 0; i < bits.length; ++i) {
+	    bits[i] = 0;
+	}
+    }
+
+    /**
+     * @return the memory (in bytes) held by every generation
+     */
+    public long sizeInBytes() {
+	return _numBits / 8 * _generations.length;
+    }
+}
@@ -0,0 +1,37 @@
+package org.brennonyork.siren.sketch;
+
+import java.io.Serializable;
+
+/**
+ * Fixed-size probabilistic summary of a stream of items. Sketches of the same configuration
+ * are mergeable, such that partial sketches built by separate tasks or over separate time
+ * panes combine into the sketch of their union, and serialize into a compact byte form which
+ * can be stored within an Accumulo value.
+ *
+ * @author Brennon York
+ */
+public interface Sketch extends Serializable {
+    /**
+     * @param item The item to add, identified by its string form
+     * @param count The weight of the item; ignored by sketches which only count distinct items
+     */
+    void offer(Object item, long count);
+
+    /**
+     * @param other A sketch of the same type and configuration to merge into this one
+     */
+    void merge(Sketch other);
+
+    /**
+     * @param bytes The serialized form of a sketch of the same type and configuration to merge
+     *              into this one
+     */
+    void mergeBytes(byte[] bytes);
+
+    /**
+     * @return a sketch of the same type and configuration holding no items
+     */
+    Sketch emptyCopy();
+
+    byte[] toBytes();
+}
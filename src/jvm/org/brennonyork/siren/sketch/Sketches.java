@@ -0,0 +1,88 @@
+package org.brennonyork.siren.sketch;
+
+import java.nio.charset.Charset;
+
+/**
+ * Hashing and encoding shared by every sketch.
+ *
+ * @author Brennon York
+ */
+public final class Sketches {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Sketches() { }
+
+    /**
+     * 64-bit MurmurHash64A of the UTF-8 form of an item.
+     *
+     * @param item The item to hash, identified by its string form
+     * @return the hash of the item
+     */
+    public static long hash64(Object item) {
+	byte[] data = item.toString().getBytes(UTF8);
+	final long m = 0xc6a4a7935bd1e995L;
+	final int r = 47;
+	int len = data.length;
+	long h = 0x9747b28cL ^ (len * m);
+	int end = len - (len % 8);
+
+	for(int i = 0; i < end; i += 8) {
+	    long k = (data[i] & 0xffL)
+		| ((data[i+1] & 0xffL) << 8)
+		| ((data[i+2] & 0xffL) << 16)
+		| ((data[i+3] & 0xffL) << 24)
+		| ((data[i+4] & 0xffL) << 32)
+		| ((data[i+5] & 0xffL) << 40)
+		| ((data[i+6] & 0xffL) << 48)
+		| ((data[i+7] & 0xffL) << 56);
+	    k *= m;
+	    k ^= k >>> r;
+	    k *= m;
+	    h ^= k;
+	    h *= m;
+	}
+	if(len > end) {
+	    for(int i = len - 1; i >= end; --i) {
+		h ^= (data[i] & 0xffL) << ((i - end) * 8);
+	    }
+	    h *= m;
+	}
+	h ^= h >>> r;
+	h *= m;
+	h ^= h >>> r;
+	return h;
+    }
+
+    /**
+     * Encodes a serialized sketch as a lower-case hex string, since values within a KVSchema
+     * are written as strings.
+     */
+    public static String toHex(byte[] bytes) {
+	char[] chars = new char[bytes.length * 2];
+
+	for(int i = 0; i < bytes.length; ++i) {
+	    chars[2*i] = HEX[(bytes[i] >>> 4) & 0xf];
+	    chars[2*i+1] = HEX[bytes[i] & 0xf];
+	}
+	return new String(chars);
+    }
+
+    public static byte[] fromHex(String hex) {
+	if(hex.length() % 2 != 0) {
+	    throw new IllegalArgumentException("Odd length hex string of "+hex.length()+" characters");
+	}
+	byte[] bytes = new byte[hex.length() / 2];
+
+	for(int i = 0; i < bytes.length; ++i) {
+	    int hi = Character.digit(hex.charAt(2*i), 16);
+	    int lo = Character.digit(hex.charAt(2*i+1), 16);
+
+	    if(hi < 0 || lo < 0) {
+		throw new IllegalArgumentException("Invalid hex string at character "+(2*i));
+	    }
+	    bytes[i] = (byte)((hi << 4) | lo);
+	}
+	return bytes;
+    }
+}
@@ -0,0 +1,252 @@
+package org.brennonyork.siren.sketch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Heavy hitters of a stream, e.g. the top talkers by packets or bytes, within bounded memory.
+ *
+ * Weights are counted within a Count-Min sketch of <code>depth</code> rows of
+ * <code>width</code> counters, which overestimates the weight of any item by at most
+ * epsilon times the total weight with the given confidence, where the width is e / epsilon
+ * and the depth is ln(1 / (1 - confidence)). Alongside it, in the manner of Space-Saving,
+ * the k items of greatest estimated weight are kept as candidates: an item displaces the
+ * lightest candidate once its estimate exceeds that candidate's. Merging adds the counters
+ * and re-ranks the union of both candidate sets against the merged counts.</br></br>
+ *
+ * The counters dominate the size of the sketch: the defaults of an epsilon of 0.01 and a
+ * confidence of 0.99 give 5 rows of 272 counters, roughly 11KB once serialized, and twice
+ * that as the hex string a SketchAggregate writes into every Accumulo cell. That is paid per
+ * group and per window whatever the traffic, so a coarser epsilon suits many groups.
+ *
+ * @author Brennon York
+ */
+public class TopK implements Sketch {
+    private static final long serialVersionUID = 1L;
+
+    private int _k;
+    private int _depth;
+    private int _width;
+    private long[][] _counts;
+    private long _total = 0;
+
+    private Map<String, Long> _candidates = new HashMap<String, Long>();
+    /** Lightest candidate, or null once it must be recomputed */
+    private String _minItem;
+    private long _minCount;
+
+    public TopK(int k) {
+	this(k, 0.01, 0.99);
+    }
+
+    /**
+     * @param k Number of heavy hitters kept
+     * @param epsilon Overestimate of each weight as a fraction of the total weight
+     * @param confidence Probability with which the overestimate holds
+     */
+    public TopK(int k, double epsilon, double confidence) {
+	this(k,
+	     (int)Math.ceil(Math.log(1.0 / (1.0 - confidence))),
+	     (int)Math.ceil(Math.E / epsilon));
+    }
+
+    private TopK(int k, int depth, int width) {
+	_k = k;
+	_depth = Math.max(1, depth);
+	_width = Math.max(1, width);
+	_counts = new long[_depth][_width];
+    }
+
+    public static TopK fromBytes(byte[] bytes) {
+	try {
+	    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+	    int k = in.readInt();
+	    int depth = in.readInt();
+	    int width = in.readInt();
+
+	    // Bound the counters by the input before allocating them
+	    if(k < 1 || depth < 1 || width < 1 || width > bytes.length / 8 / depth) {
+		throw new IllegalArgumentException("Serialized TopK of "+bytes.length+" bytes does not hold "+
+						   depth+"x"+width+" counters");
+	    }
+	    TopK topK = new TopK(k, depth, width);
+
+	    topK._total = in.readLong();
+	    for(long[] row : topK._counts) {
+		for(int i = 0; i < row.length; ++i) {
+		    row[i] = in.readLong();
+		}
+	    }
+	    int numCandidates = in.readInt();
+	    for(int i = 0; i < numCandidates; ++i) {
+		topK._candidates.put(in.readUTF(), in.readLong());
+	    }
+	    return topK;
+	} catch(IOException e) {
+	    throw new IllegalArgumentException("Could not read a serialized TopK", e);
+	}
+    }
+
+    private int index(long hash, int row) {
+	// Kirsch-Mitzenmacher: each row hashes through a combination of two halves of one hash
+	int h = (int)hash + row * (int)(hash >>> 32);
+	return (h & Integer.MAX_VALUE) % _width;
+    }
+
+    private long estimate(long hash) {
+	long min = Long.MAX_VALUE;
+
+	for(int row = 0; row < _depth; ++row) {
+	    min = Math.min(min, _counts[row][index(hash, row)]);
+	}
+	return min;
+    }
+
+    /**
+     * @return the estimated weight of an item, never less than its true weight
+     */
+    public long estimateCount(Object item) {
+	return estimate(Sketches.hash64(item));
+    }
+
+    public long getTotal() {
+	return _total;
+    }
+
+    private void recomputeMin() {
+	_minItem = null;
+	_minCount = Long.MAX_VALUE;
+
+	for(Map.Entry<String, Long> e : _candidates.entrySet()) {
+	    if(e.getValue() < _minCount) {
+		_minItem = e.getKey();
+		_minCount = e.getValue();
+	    }
+	}
+    }
+
+    public void offer(Object item, long count) {
+	long hash = Sketches.hash64(item);
+	long est = Long.MAX_VALUE;
+
+	for(int row = 0; row < _depth; ++row) {
+	    int i = index(hash, row);
+	    _counts[row][i] += count;
+	    est = Math.min(est, _counts[row][i]);
+	}
+	_total += count;
+	String key = item.toString();
+
+	if(_candidates.containsKey(key)) {
+	    _candidates.put(key, est);
+
+	    if(key.equals(_minItem)) {
+		_minItem = null;
+	    }
+	} else if(_candidates.size() < _k) {
+	    _candidates.put(key, est);
+	    _minItem = null;
+	} else {
+	    if(_minItem == null) {
+		recomputeMin();
+	    }
+	    if(est > _minCount) {
+		_candidates.remove(_minItem);
+		_candidates.put(key, est);
+		_minItem = null;
+	    }
+	}
+    }
+
+    /**
+     * @return the heavy hitters and their estimated weights, heaviest first
+     */
+    public List<Map.Entry<String, Long>> top() {
+	List<Map.Entry<String, Long>> top = new ArrayList<Map.Entry<String, Long>>(_candidates.entrySet());
+
+	Collections.sort(top, new Comparator<Map.Entry<String, Long>>() {
+		public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+		    return b.getValue().compareTo(a.getValue());
+		}
+	    });
+	return top;
+    }
+
+    public void merge(Sketch other) {
+	TopK topK = (TopK)other;
+
+	if(topK._depth != _depth || topK._width != _width) {
+	    throw new IllegalArgumentException("Cannot merge a "+topK._depth+"x"+topK._width+" TopK into a "+_depth+"x"+_width+" TopK");
+	}
+	for(int row = 0; row < _depth; ++row) {
+	    for(int i = 0; i < _width; ++i) {
+		_counts[row][i] += topK._counts[row][i];
+	    }
+	}
+	_total += topK._total;
+
+	Map<String, Long> union = new HashMap<String, Long>();
+	for(String item : _candidates.keySet()) {
+	    union.put(item, estimateCount(item));
+	}
+	for(String item : topK._candidates.keySet()) {
+	    union.put(item, estimateCount(item));
+	}
+	_candidates = union;
+
+	if(_candidates.size() > _k) {
+	    List<Map.Entry<String, Long>> top = top();
+	    _candidates = new HashMap<String, Long>();
+
+	    for(Map.Entry<String, Long> e : top.subList(0, _k)) {
+		_candidates.put(e.getKey(), e.getValue());
+	    }
+	}
+	_minItem = null;
+    }
+
+    public void mergeBytes(byte[] bytes) {
+	merge(fromBytes(bytes));
+    }
+
+    public Sketch emptyCopy() {
+	return new TopK(_k, _depth, _width);
+    }
+
+    public byte[] toBytes() {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + 8 * _depth * _width);
+
+	try {
+	    DataOutputStream out = new DataOutputStream(bytes);
+	    out.writeInt(_k);
+	    out.writeInt(_depth);
+	    out.writeInt(_width);
+	    out.writeLong(_total);
+
+	    for(long[] row : _counts) {
+		for(long c : row) {
+		    out.writeLong(c);
+		}
+	    }
+	    out.writeInt(_candidates.size());
+	    for(Map.Entry<String, Long> e : _candidates.entrySet()) {
+		out.writeUTF(e.getKey());
+		out.writeLong(e.getValue());
+	    }
+	    out.flush();
+	} catch(IOException e) {
+	    // Unreachable when writing to memory
+	    throw new RuntimeException(e);
+	}
+	return bytes.toByteArray();
+    }
+}
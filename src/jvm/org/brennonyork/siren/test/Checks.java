@@ -0,0 +1,15 @@
+package org.brennonyork.siren.test;
+
+/**
+ * Assertions shared by the tests, which throw an AssertionError regardless of whether
+ * assertions are enabled within the JVM.
+ */
+class Checks {
+    private Checks() { }
+
+    static void check(boolean condition, String message) {
+	if(!condition) {
+	    throw new AssertionError(message);
+	}
+    }
+}
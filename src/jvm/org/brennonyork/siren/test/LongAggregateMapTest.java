@@ -0,0 +1,118 @@
+package org.brennonyork.siren.test;
+
+import static org.brennonyork.siren.test.Checks.check;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.brennonyork.siren.LongAggregateMap;
+import org.brennonyork.siren.LongAggregateMap.Op;
+import org.brennonyork.siren.LongAggregateWindow;
+
+public class LongAggregateMapTest {
+    private static Map<Object, Long> toMap(LongAggregateMap map) {
+	Map<Object, Long> m = new HashMap<Object, Long>();
+	for(int i = 0; i < map.capacity(); ++i) {
+	    if(map.keyAt(i) != null) {
+		m.put(map.keyAt(i), map.valueAt(i));
+	    }
+	}
+	return m;
+    }
+
+    /** Aggregates random keys through every Op and compares against a HashMap */
+    static void testOps() {
+	Random rand = new Random(42);
+
+	for(Op op : Op.values()) {
+	    LongAggregateMap map = new LongAggregateMap(2);
+	    Map<Object, Long> expected = new HashMap<Object, Long>();
+
+	    for(int i = 0; i < 10000; ++i) {
+		List<Object> key = Arrays.<Object>asList("host"+rand.nextInt(500), rand.nextInt(3));
+		long value = (op == Op.COUNT) ? 1 : rand.nextInt(1000) - 500;
+		map.merge(key, value, op);
+
+		Long current = expected.get(key);
+		if(current == null) {
+		    expected.put(key, value);
+		} else if(op == Op.MIN) {
+		    expected.put(key, Math.min(current, value));
+		} else if(op == Op.MAX) {
+		    expected.put(key, Math.max(current, value));
+		} else {
+		    expected.put(key, current + value);
+		}
+	    }
+	    check(map.size() == expected.size(), op+": size "+map.size()+" != "+expected.size());
+	    check(toMap(map).equals(expected), op+": aggregates differ");
+	    check(map.size() * 2 <= map.capacity(), op+": table more than half full");
+	}
+    }
+
+    static void testMergeAllAndClear() {
+	LongAggregateMap a = new LongAggregateMap();
+	LongAggregateMap b = new LongAggregateMap();
+	a.merge("x", 3, Op.SUM);
+	a.merge("y", 4, Op.SUM);
+	b.merge("y", 5, Op.SUM);
+	b.merge("z", 6, Op.SUM);
+	a.mergeAll(b, Op.SUM);
+
+	Map<Object, Long> m = toMap(a);
+	check(m.size() == 3 && m.get("x") == 3 && m.get("y") == 9 && m.get("z") == 6, "mergeAll: "+m);
+
+	a.clear();
+	check(a.size() == 0 && toMap(a).isEmpty(), "clear left entries behind");
+	a.merge("x", 1, Op.SUM);
+	check(toMap(a).get("x") == 1, "map unusable after clear");
+    }
+
+    /** Sliding windows of 3 slides see each value in 3 consecutive windows */
+    static void testSlidingWindow() {
+	LongAggregateWindow ring = new LongAggregateWindow(Op.SUM, 3000, 1000, 10500);
+	check(!ring.closeNext(10999), "closed a pane before it ended");
+
+	ring.merge("k", 1);   // pane [10000, 11000)
+	check(ring.closeNext(11000), "pane ending at 11000 not closed");
+	check(ring.windowEnd() == 11000, "window end "+ring.windowEnd());
+	check(toMap(ring.window()).get("k") == 1, "first window");
+	check(!ring.closeNext(11000), "closed the same pane twice");
+
+	ring.merge("k", 10);  // pane [11000, 12000)
+	ring.merge("j", 5);
+	long[] expected = {11, 11, 10, 0};
+
+	for(int i = 0; i < expected.length; ++i) {
+	    check(ring.closeNext(15000), "window "+i+" not closed");
+	    Long k = toMap(ring.window()).get("k");
+	    check((k == null ? 0 : k) == expected[i], "window "+i+": k="+k);
+	    check(ring.windowEnd() == 12000 + i * 1000, "window "+i+" ends at "+ring.windowEnd());
+	}
+	check(!ring.closeNext(15000), "closed a pane ahead of time");
+	check(ring.size() == 0, "expired panes still hold keys");
+    }
+
+    static void testTumblingWindow() {
+	LongAggregateWindow ring = new LongAggregateWindow(Op.MAX, 2000, 2000, 0);
+	ring.merge("k", 7);
+	ring.merge("k", 3);
+	check(ring.closeNext(2000) && toMap(ring.window()).get("k") == 7, "tumbling window");
+	check(ring.closeNext(4000) && ring.window().size() == 0, "tumbling window kept old pane");
+
+	try {
+	    new LongAggregateWindow(Op.SUM, 3000, 2000, 0);
+	    throw new AssertionError("accepted a slide not dividing the window");
+	} catch(IllegalArgumentException e) { }
+    }
+
+    public static void main(String[] args) {
+	testOps();
+	testMergeAllAndClear();
+	testSlidingWindow();
+	testTumblingWindow();
+    }
+}
@@ -0,0 +1,176 @@
+package org.brennonyork.siren.test;
+
+import static org.brennonyork.siren.test.Checks.check;
+
+import backtype.storm.tuple.Fields;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.brennonyork.siren.RecordBlock;
+import org.brennonyork.siren.RecordBlock.Encoding;
+import org.brennonyork.siren.RecordBlockSerializer;
+
+public class RecordBlockTest {
+    private static Kryo kryo() {
+	Kryo kryo = new Kryo();
+	kryo.register(RecordBlock.class, new RecordBlockSerializer());
+	return kryo;
+    }
+
+    private static byte[] write(Kryo kryo, Object o) {
+	Output output = new Output(4096, -1);
+	kryo.writeClassAndObject(output, o);
+	return output.toBytes();
+    }
+
+    private static String hex(long v, int width) {
+	String s = Long.toHexString(v);
+	while(s.length() < 2 * width) {
+	    s = "0"+s;
+	}
+	return s;
+    }
+
+    /** Flow-like records: ts, sip, dip, sport, dport, proto, sensor, bytes */
+    private static List<List<Object>> flows(int n, boolean withNulls) {
+	Random rand = new Random(3);
+	String[] sensors = {"S0", "S1", "S2", "EDGE-NORTH"};
+	List<List<Object>> records = new ArrayList<List<Object>>();
+	long ts = 1380000000000L;
+
+	for(int i = 0; i < n; ++i) {
+	    ts += rand.nextInt(50);
+	    records.add(Arrays.<Object>asList(hex(ts, 8),
+					      hex(0x0a000000L + rand.nextInt(256), 4),
+					      hex(0xc0a80000L + rand.nextInt(4096), 4),
+					      hex(1024 + rand.nextInt(60000), 2),
+					      hex((rand.nextInt(4) == 0) ? 53 : 443, 2),
+					      hex((rand.nextInt(4) == 0) ? 17 : 6, 1),
+					      (withNulls && i % 7 == 0) ? null : sensors[rand.nextInt(sensors.length)],
+					      (withNulls && i % 5 == 0) ? null : Long.toString(40 + rand.nextInt(1500))));
+	}
+	if(withNulls) {
+	    records.get(3).set(1, null);
+	    records.get(n - 1).set(1, null);
+	}
+	return records;
+    }
+
+    private static RecordBlock block(List<List<Object>> records) {
+	Fields fields = new Fields("ts", "sip", "dip", "sport", "dport", "proto", "sensor", "bytes");
+	Encoding H = Encoding.HEX;
+	RecordBlock block = new RecordBlock(fields,
+					    new Encoding[] {H, H, H, H, H, H, Encoding.DICTIONARY, Encoding.LONG},
+					    new int[] {8, 4, 4, 2, 2, 1, 0, 0});
+	for(List<Object> record : records) {
+	    block.add(record);
+	}
+	return block;
+    }
+
+    /** LONG columns read back as Longs, every other column as the String given */
+    private static void checkRecords(RecordBlock block, List<List<Object>> records) {
+	check(block.size() == records.size(), "block of "+block.size()+" records");
+
+	for(int r = 0; r < records.size(); ++r) {
+	    List<Object> expected = new ArrayList<Object>(records.get(r));
+	    Object bytes = expected.get(7);
+	    expected.set(7, (bytes == null) ? null : Long.valueOf(bytes.toString()));
+	    check(block.getValues(r).equals(expected), "record "+r+": "+block.getValues(r)+" != "+expected);
+	}
+    }
+
+    static void testRoundTrip(boolean withNulls) {
+	List<List<Object>> records = flows(1000, withNulls);
+	RecordBlock block = block(records);
+	checkRecords(block, records);
+
+	Kryo kryo = kryo();
+	RecordBlock copy = (RecordBlock)kryo.readClassAndObject(new Input(write(kryo, block)));
+	checkRecords(copy, records);
+
+	// A deserialized block keeps accepting records and codes
+	List<Object> more = Arrays.<Object>asList("0000000000000001", null, "c0a80001", "0050", "01bb", "06", "S1", null);
+	records.add(more);
+	copy.add(more);
+	checkRecords(copy, records);
+    }
+
+    /** The serialized block is far smaller than the strings it replaces */
+    static void testSize() {
+	List<List<Object>> records = flows(1000, false);
+	Kryo kryo = kryo();
+	int blockBytes = write(kryo, block(records)).length;
+	int valueBytes = write(kryo, new ArrayList<List<Object>>(records)).length;
+
+	check(blockBytes * 5 < valueBytes, "block of "+blockBytes+" bytes against "+valueBytes);
+    }
+
+    static void testEmptyAndDictionaryOnly() {
+	Kryo kryo = kryo();
+	RecordBlock empty = new RecordBlock(new Fields("a", "b"));
+	RecordBlock copy = (RecordBlock)kryo.readClassAndObject(new Input(write(kryo, empty)));
+	check(copy.size() == 0 && copy.getFields().toList().equals(Arrays.asList("a", "b")), "empty block");
+
+	copy.add(Arrays.<Object>asList("x", null));
+	// Dictionary columns hold the String form of any other value
+	copy.add(Arrays.<Object>asList("x", 5));
+	copy = (RecordBlock)kryo.readClassAndObject(new Input(write(kryo, copy)));
+	check(copy.getValues(0).equals(Arrays.<Object>asList("x", null)), "record 0: "+copy.getValues(0));
+	check(copy.getValues(1).equals(Arrays.<Object>asList("x", "5")), "record 1: "+copy.getValues(1));
+    }
+
+    /** Starts a block of one field and the given encoding */
+    private static Output header(int ordinal) {
+	Output output = new Output(64, -1);
+	output.writeInt(1, true);
+	output.writeString("a");
+	output.writeByte(ordinal);
+	output.writeByte(0);
+	return output;
+    }
+
+    private static void checkMalformed(Output output, String what) {
+	try {
+	    new RecordBlockSerializer().read(kryo(), new Input(output.toBytes()), RecordBlock.class);
+	    throw new AssertionError("read a block with "+what);
+	} catch(IllegalArgumentException e) { }
+    }
+
+    static void testMalformed() {
+	checkMalformed(header(Encoding.values().length), "an unknown encoding");
+
+	Output output = header(Encoding.DICTIONARY.ordinal());
+	output.writeInt(1, true); // records
+	output.writeInt(1, true); // dictionary values
+	output.writeString("x");
+	output.writeInt(3, true); // code 2
+	checkMalformed(output, "a code past its dictionary");
+
+	output = header(Encoding.LONG.ordinal());
+	output.writeInt(2, true); // records
+	output.writeInt(1, true); // nulls
+	output.writeInt(5, true); // null at record 5
+	checkMalformed(output, "a null past its records");
+
+	output = new Output(64, -1);
+	output.writeInt(0, true); // fields
+	output.writeInt(3, true); // records
+	checkMalformed(output, "records but no fields");
+    }
+
+    public static void main(String[] args) {
+	testRoundTrip(false);
+	testRoundTrip(true);
+	testSize();
+	testEmptyAndDictionaryOnly();
+	testMalformed();
+    }
+}
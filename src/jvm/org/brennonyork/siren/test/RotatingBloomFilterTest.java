@@ -0,0 +1,73 @@
+package org.brennonyork.siren.test;
+
+import static org.brennonyork.siren.test.Checks.check;
+
+import org.brennonyork.siren.sketch.RotatingBloomFilter;
+import org.brennonyork.siren.sketch.Sketches;
+
+public class RotatingBloomFilterTest {
+    private static long hash(String prefix, int i) {
+	return Sketches.hash64(prefix+i);
+    }
+
+    /** Items are remembered across generations - 1 rotations and forgotten after the next */
+    static void testRotation() {
+	int n = 10000;
+	RotatingBloomFilter filter = new RotatingBloomFilter(n, 0.01, 3);
+
+	for(int i = 0; i < n; ++i) {
+	    filter.putIfAbsent(hash("a", i));
+	}
+	for(int r = 0; r < 3; ++r) {
+	    for(int i = 0; i < n; ++i) {
+		check(filter.mightContain(hash("a", i)), "a"+i+" forgotten after "+r+" rotations");
+		check(!filter.putIfAbsent(hash("a", i)), "a"+i+" added twice after "+r+" rotations");
+	    }
+	    filter.rotate();
+	}
+
+	int remembered = 0;
+	for(int i = 0; i < n; ++i) {
+	    if(filter.mightContain(hash("a", i))) {
+		remembered += 1;
+	    }
+	}
+	check(remembered == 0, remembered+" items remembered after every generation rotated");
+    }
+
+    /** The false positive rate across every full generation stays near its target */
+    static void testFalsePositiveRate() {
+	int n = 20000;
+	double fpp = 0.01;
+	RotatingBloomFilter filter = new RotatingBloomFilter(n, fpp, 2);
+
+	for(int i = 0; i < n; ++i) {
+	    filter.putIfAbsent(hash("old", i));
+	}
+	filter.rotate();
+	for(int i = 0; i < n; ++i) {
+	    filter.putIfAbsent(hash("new", i));
+	}
+
+	int falsePositives = 0;
+	int trials = 200000;
+	for(int i = 0; i < trials; ++i) {
+	    if(filter.mightContain(hash("absent", i))) {
+		falsePositives += 1;
+	    }
+	}
+	double rate = (double)falsePositives / trials;
+	check(rate <= 1.5 * fpp, "false positive rate of "+rate+" for a target of "+fpp);
+	check(filter.sizeInBytes() < 2 * n * 2, "filter of "+filter.sizeInBytes()+" bytes");
+    }
+
+    public static void main(String[] args) {
+	testRotation();
+	testFalsePositiveRate();
+
+	try {
+	    new RotatingBloomFilter(100, 0.01, 1);
+	    throw new AssertionError("accepted a single generation");
+	} catch(IllegalArgumentException e) { }
+    }
+}
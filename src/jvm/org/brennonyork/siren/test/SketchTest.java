@@ -0,0 +1,140 @@
+package org.brennonyork.siren.test;
+
+import static org.brennonyork.siren.test.Checks.check;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.brennonyork.siren.sketch.HyperLogLog;
+import org.brennonyork.siren.sketch.Sketches;
+import org.brennonyork.siren.sketch.TopK;
+
+public class SketchTest {
+    private static void checkRejected(byte[] bytes, boolean topK) {
+	try {
+	    if(topK) {
+		TopK.fromBytes(bytes);
+	    } else {
+		HyperLogLog.fromBytes(bytes);
+	    }
+	    throw new AssertionError("accepted a malformed sketch of "+bytes.length+" bytes");
+	} catch(IllegalArgumentException e) { }
+    }
+
+    /** Estimates stay within three standard errors of the true distinct count */
+    static void testHyperLogLogError() {
+	int[] cardinalities = {10, 1000, 50000, 500000};
+
+	for(int precision : new int[] {10, 12, 14}) {
+	    double bound = 3 * 1.04 / Math.sqrt(1 << precision);
+
+	    for(int n : cardinalities) {
+		HyperLogLog hll = new HyperLogLog(precision);
+		for(int i = 0; i < n; ++i) {
+		    hll.offer("10.0."+(i >>> 8)+"."+(i & 0xff), 1);
+		    hll.offer("10.0."+(i >>> 8)+"."+(i & 0xff), 1); // duplicates change nothing
+		}
+		double error = Math.abs(hll.estimate() - n) / (double)n;
+		check(error <= bound, "precision "+precision+", n="+n+": estimate "+hll.estimate()+" off by "+error);
+	    }
+	}
+    }
+
+    static void testHyperLogLogMergeAndBytes() {
+	HyperLogLog a = new HyperLogLog();
+	HyperLogLog b = new HyperLogLog();
+	HyperLogLog all = new HyperLogLog();
+
+	for(int i = 0; i < 20000; ++i) {
+	    ((i % 3 == 0) ? a : b).offer("item"+i, 1);
+	    all.offer("item"+i, 1);
+	}
+	HyperLogLog merged = (HyperLogLog)a.emptyCopy();
+	merged.mergeBytes(Sketches.fromHex(Sketches.toHex(a.toBytes())));
+	merged.merge(b);
+	merged.merge(b); // merging is idempotent
+	check(Arrays.equals(merged.toBytes(), all.toBytes()), "merge differs from the sketch of the union");
+	check(HyperLogLog.fromBytes(all.toBytes()).estimate() == all.estimate(), "round trip changed the estimate");
+	check(all.toBytes().length == 4097, "default sketch of "+all.toBytes().length+" bytes");
+
+	checkRejected(new byte[0], false);
+	checkRejected(new byte[] {12, 0, 0}, false);
+	checkRejected(new byte[] {40}, false);
+	try {
+	    new HyperLogLog(10).merge(new HyperLogLog(12));
+	    throw new AssertionError("merged sketches of different precision");
+	} catch(IllegalArgumentException e) { }
+    }
+
+    /** Offers a skewed stream of items: item i has weight 1000 / (i + 1) */
+    private static void offerSkewed(TopK topK, int from, int to, Random rand) {
+	for(int i = from; i < to; ++i) {
+	    topK.offer("host"+i, 1000 / (i + 1));
+	    topK.offer("noise"+rand.nextInt(100000), 1);
+	}
+    }
+
+    static void testTopK() {
+	TopK topK = new TopK(5);
+	offerSkewed(topK, 0, 2000, new Random(7));
+	List<Map.Entry<String, Long>> top = topK.top();
+
+	check(top.size() == 5, "top holds "+top.size()+" items");
+	for(int i = 0; i < 5; ++i) {
+	    check(top.get(i).getKey().equals("host"+i), "rank "+i+" is "+top.get(i).getKey());
+	}
+	long total = topK.getTotal();
+	for(int i = 0; i < 50; ++i) {
+	    long est = topK.estimateCount("host"+i);
+	    long actual = 1000 / (i + 1);
+	    check(est >= actual, "host"+i+" underestimated: "+est+" < "+actual);
+	    check(est - actual <= 0.01 * total, "host"+i+" overestimated by "+(est - actual)+" of "+total);
+	}
+    }
+
+    static void testTopKMergeAndBytes() {
+	TopK a = new TopK(5);
+	TopK b = new TopK(5);
+	TopK all = new TopK(5);
+	Random rand = new Random(11);
+	offerSkewed(a, 0, 1000, rand);
+	offerSkewed(b, 1000, 2000, rand);
+	for(int i = 0; i < 10; ++i) {
+	    b.offer("host"+i, 1000); // b alone would rank these last
+	}
+
+	TopK copy = TopK.fromBytes(Sketches.fromHex(Sketches.toHex(a.toBytes())));
+	check(Arrays.equals(copy.toBytes(), a.toBytes()), "round trip changed the sketch");
+	check(copy.top().equals(a.top()), "round trip changed the candidates");
+
+	TopK merged = (TopK)a.emptyCopy();
+	merged.merge(copy);
+	merged.mergeBytes(b.toBytes());
+	check(merged.getTotal() == a.getTotal() + b.getTotal(), "merged total "+merged.getTotal());
+
+	List<Map.Entry<String, Long>> top = merged.top();
+	check(top.size() == 5, "merged top holds "+top.size()+" items");
+	for(int i = 0; i < 5; ++i) {
+	    check(top.get(i).getKey().equals("host"+i), "merged rank "+i+" is "+top.get(i).getKey());
+	    check(top.get(i).getValue() >= 1000 + 1000 / (i + 1), "merged host"+i+" underestimated");
+	}
+	check(a.toBytes().length < 12 * 1024, "default TopK of "+a.toBytes().length+" bytes");
+
+	checkRejected(new byte[0], true);
+	checkRejected(Arrays.copyOf(a.toBytes(), 100), true);
+	checkRejected(new byte[] {0, 0, 0, 5, 0x7f, 0x7f, 0x7f, 0x7f, 0x7f, 0x7f, 0x7f, 0x7f, 0, 0, 0, 0}, true);
+	try {
+	    Sketches.fromHex("zz");
+	    throw new AssertionError("accepted an invalid hex string");
+	} catch(IllegalArgumentException e) { }
+    }
+
+    public static void main(String[] args) {
+	testHyperLogLogError();
+	testHyperLogLogMergeAndBytes();
+	testTopK();
+	testTopKMergeAndBytes();
+    }
+}
@@ -0,0 +1,72 @@
+package org.brennonyork.siren.test;
+
+import static org.brennonyork.siren.test.Checks.check;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+
+import org.brennonyork.siren.BulkMutation;
+import org.brennonyork.siren.ValueCombiner;
+import org.brennonyork.siren.ValueCombiners;
+
+public class ValueCombinersTest {
+    private static Value v(String s) {
+	return new Value(s.getBytes());
+    }
+
+    private static String s(Value v) {
+	return new String(v.get());
+    }
+
+    static void testCombiners() {
+	check(s(new ValueCombiners.Sum().combine(v("40"), 1, v(" 2"), 2)).equals("42"), "sum of 40 and 2");
+	check(s(new ValueCombiners.Sum().combine(v("-5"), 1, v("3"), 2)).equals("-2"), "sum of -5 and 3");
+	check(s(new ValueCombiners.Min().combine(v("7"), 1, v("3"), 2)).equals("3"), "min of 7 and 3");
+	check(s(new ValueCombiners.Max().combine(v("7"), 1, v("3"), 2)).equals("7"), "max of 7 and 3");
+
+	ValueCombiner lww = new ValueCombiners.LastWriteWins();
+	check(s(lww.combine(v("old"), 1, v("new"), 2)).equals("new"), "newer incoming value lost");
+	check(s(lww.combine(v("new"), 2, v("old"), 1)).equals("new"), "older incoming value won");
+	check(s(lww.combine(v("first"), 1, v("second"), 1)).equals("second"), "incoming value lost a tie");
+
+	check(s(new ValueCombiners.SetUnion().combine(v("c,a"), 1, v("b,,a"), 2)).equals("a,b,c"),
+	      "union of c,a and b,,a");
+	check(s(new ValueCombiners.SetUnion("|").combine(v(""), 1, v("y|x"), 2)).equals("x|y"),
+	      "union of an empty set and y|x");
+    }
+
+    /** Records sharing a row and column collapse into one cell carrying the newest timestamp */
+    static void testAddKVPair() {
+	TreeMap<Key, Value> records = new TreeMap<Key, Value>();
+	ValueCombiner sum = new ValueCombiners.Sum();
+
+	BulkMutation.addKVPair(records, sum, new Key("r1", "cf", "cq", "", 5), v("1"));
+	BulkMutation.addKVPair(records, sum, new Key("r1", "cf", "cq", "", 9), v("2"));
+	BulkMutation.addKVPair(records, sum, new Key("r1", "cf", "cq", "", 3), v("4"));
+	BulkMutation.addKVPair(records, sum, new Key("r1", "cf", "cq", "vis", 1), v("8"));
+	BulkMutation.addKVPair(records, sum, new Key("r1", "cf", "other", "", 1), v("16"));
+	BulkMutation.addKVPair(records, sum, new Key("r0", "cf", "cq", "", 1), v("32"));
+
+	check(records.size() == 4, records.size()+" cells rather than 4");
+
+	Map.Entry<Key, Value> cell = records.ceilingEntry(new Key("r1", "cf", "cq", "", Long.MAX_VALUE));
+	check(cell.getKey().getTimestamp() == 9, "combined cell has timestamp "+cell.getKey().getTimestamp());
+	check(s(cell.getValue()).equals("7"), "combined cell holds "+s(cell.getValue()));
+
+	// Every Key stays in sorted order after its timestamp was raised
+	Key previous = null;
+	for(Key k : records.keySet()) {
+	    check(previous == null || previous.compareTo(k) < 0, previous+" sorts after "+k);
+	    previous = k;
+	}
+	check(records.firstKey().getRow().toString().equals("r0"), "first row is "+records.firstKey().getRow());
+    }
+
+    public static void main(String[] args) {
+	testCombiners();
+	testAddKVPair();
+    }
+}